@@ -1,5 +1,10 @@
 package Connect4;
 
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
 /**
  * AI (artificial intelligence) methods for computer play.
  * There's only one AI, so we shouldn't need to create any instances of this class.
@@ -8,8 +13,136 @@ package Connect4;
  */
 public class AI {
     static final String COMPUTER_COLOR = "red";
+    static final int COMPUTER = BitBoard.playerOf(COMPUTER_COLOR); // as a bitboard player
     static final int INFINITY = 15625; // 15625 = 5^6
+    static final int MAX_SCORE = 2 * INFINITY; // bigger than any score the search can return
     static final int[] SELECTION_ORDER = new int[] {3, 4, 2, 5, 1, 6, 0}; // column choices
+    static final int TABLE_SIZE_BITS = 21; // 2^21 entries, 16 bytes apiece
+    static final String OFF_HEAP_PROPERTY = "connect4.offHeapTable"; // e.g. -Dconnect4.offHeapTable=8G
+    static final long NO_TIME_LIMIT = -1;
+    static final long NO_NODE_LIMIT = Long.MAX_VALUE;
+    static final int ASPIRATION_WINDOW = 50; // how far from the last iteration's score we'll look
+    private static final int CLOCK_CHECK_INTERVAL = 1024; // nodes between looks at the clock
+    static final int STATIC_SOLVER_MIN_DEPTH = 4; // nodes any shallower than this don't try the rules
+    static final int ENDGAME_EMPTY_CELLS = 22; // positions with this few empty cells are solved exactly
+    static final int ENDGAME_TABLE_BITS = 22; // 2^22 entries, 16 bytes apiece
+    static final long PROOF_NUMBER_NODES = 100000; // positions the proof-number check can look at
+    static final long PROOF_NUMBER_MEMORY = 1L << 26; // bytes for the proof-number solver's table
+    
+    // The parallel search, for callers that ask for more than one thread. It's kept around
+    // (along with its threads) until a call asks for a different number of them.
+    private static ParallelSearch parallelSearch;
+    private static TranspositionTable sharedTable; // the table it uses, which must be thread-safe
+    
+    // Search modes. PVS deepens with aspiration windows; MTD(f) instead homes in on the score
+    // with a series of zero-width searches, which pays off when there are few distinct scores
+    // (e.g. when the search can see all the way to the end of the game).
+    static final int PVS = 0, MTDF = 1;
+    private static int searchMode = PVS;
+    
+    // Positions we've already searched. This is kept between moves, so every turn
+    // gets to start from whatever the previous turns have already worked out.
+    private static final TranspositionTable table = createTable();
+    
+    // The exact solver, for the end of the game and for perfect play. It's only created once
+    // it's needed, and its table is never cleared: whatever it has solved stays true
+    // from one game to the next.
+    private static EndgameSolver solver;
+    
+    // The proof-number solver, which looks for long forced wins before the search does.
+    // Like the exact solver, it's created once it's needed and keeps what it's worked out.
+    private static ProofNumberSearch prover;
+    private static long proofNumberNodes = PROOF_NUMBER_NODES;
+    
+    // Solved results for the first few plies, looked up instead of searched
+    private static final OpeningBook book = OpeningBook.load();
+    
+    // Tablebases for the small boards, by width * 64 + height (empty where there isn't one,
+    // so that a missing tablebase is only looked for once)
+    private static final Map<Integer, Optional<Tablebase>> tablebases = new HashMap<>();
+    
+    // Every position the solver has proved, saved between runs (see SolvedCache.open)
+    private static final SolvedCache cache = SolvedCache.open();
+    private static int endgameEmptyCells = ENDGAME_EMPTY_CELLS;
+    
+    // Bookkeeping for the search that's currently running
+    private static long deadline; // in System.nanoTime() terms
+    private static boolean timeUp; // set once the deadline or node budget runs out; then all unwinds
+    private static long nodesSearched;
+    private static long nodeLimit = NO_NODE_LIMIT; // the most nodes the current move may visit
+    private static long nextClockCheck; // the node count at which to look at the clock again
+    private static int rootBestMove; // the best move found by the latest call to searchRoot
+    private static boolean lastMoveProven; // whether the last move returned is known to be best
+    
+    // Move ordering (killer moves and the history table; see MoveOrdering.orderMoves)
+    private static final MoveOrdering ordering = new MoveOrdering();
+    private static final int[][] moveLists = new int[BitBoard.SIZE + 1][BitBoard.WIDTH];
+    private static final int[] moveKeys = new int[BitBoard.WIDTH];
+    private static final Frontier frontier = new Frontier();
+    
+    /**
+     * Creates the AI's transposition table. Normally this is a small table on the heap,
+     * but if the OFF_HEAP_PROPERTY system property is set to a size (like "8G"),
+     * it'll be an off-heap table of that size instead.
+     */
+    private static TranspositionTable createTable() {
+        String size = System.getProperty(OFF_HEAP_PROPERTY);
+        if (size != null) {
+            return new OffHeapTable(OffHeapTable.parseSize(size));
+        }
+        
+        return new HeapTable(TABLE_SIZE_BITS);
+    }
+    
+    /**
+     * Returns the AI's transposition table (for reporting statistics and the like).
+     */
+    static TranspositionTable getTable() {
+        return table;
+    }
+    
+    /**
+     * Forgets everything the AI has learned about the current game.
+     * Should be called whenever a new game begins.
+     */
+    public static void newGame() {
+        table.clear();
+        if (sharedTable != null && sharedTable != table) {
+            sharedTable.clear();
+        }
+        ordering.clear();
+    }
+    
+    /**
+     * Sets the search mode to either PVS or MTDF.
+     */
+    public static void setSearchMode(int mode) {
+        searchMode = mode;
+    }
+    
+    /**
+     * Sets the number of empty cells at (or below) which positions are solved exactly
+     * rather than searched to a limited depth. 0 turns the exact solver off.
+     */
+    public static void setEndgameThreshold(int emptyCells) {
+        endgameEmptyCells = emptyCells;
+    }
+    
+    /**
+     * Sets the number of positions the proof-number solver may look at (on every move) for a forced
+     * win before the search starts. 0 turns the check off.
+     */
+    public static void setProofNumberBudget(long nodes) {
+        proofNumberNodes = nodes;
+    }
+    
+    /**
+     * Returns true if the move returned by the most recent call to getBestComputerMove is
+     * proven to be a best move (i.e. the position was solved, rather than just searched).
+     */
+    public static boolean isLastMoveProven() {
+        return lastMoveProven;
+    }
     
     /**
      * Returns the best move for the computer, given a board state BOARD and a maximum depth DEPTH.
@@ -19,297 +152,741 @@ public class AI {
      * This method is the AI's interface with the rest of the world.
      */
     public static int getBestComputerMove(ReguBoard board, int depth) {
-        int computerMove = 0; // the best computer move
-        int maxScore = Integer.MIN_VALUE; 
-        for (int c : SELECTION_ORDER) {
-            if (!board.isColumnFull(c)) { // if a column's not full, then it's a possible move
-                // Create a piece for the computer to [theoretically] place
-                int lowRow = board.lowestOpenRow(c);
-                Piece p = new Piece(board.getCurrPlayer(), c, lowRow);
-                
-                // Simulate the new board configuration
-                Piece[][] newBoard = board.cloneBoard();
-                newBoard[lowRow][c] = p;
-                ReguBoard b = new ReguBoard(newBoard, board.getNumPieces() + 1, board.otherPlayer());
-                
-                // Check if the move yields the best score we've seen so far
-                int score = minimax(b, depth - 1, p, Integer.MIN_VALUE, Integer.MAX_VALUE, false);
-                if (score > maxScore) {
-                    maxScore = score;
-                    computerMove = c;
-                    
-                    // INFINITY (+ depth * 5) means the computer's won!
-                    if (score == INFINITY + depth * 5) {
-                        break;
-                    }
+        return getBestComputerMove(board, depth, NO_TIME_LIMIT);
+    }
+    
+    /**
+     * Returns the best move for the computer, searching at most MAX_DEPTH turns ahead
+     * and spending at most TIME_LIMIT milliseconds (or any amount of time, given NO_TIME_LIMIT).
+     *
+     * The search deepens one turn at a time. Each iteration starts with the best move from
+     * the one before it, and looks only near the previous score at first (an "aspiration window").
+     * When time runs out, the move from the deepest iteration that finished is returned.
+     *
+     * Once there are few enough empty cells left (see setEndgameThreshold), the position is
+     * handed to the exact endgame solver first, with up to half of the time. If it finishes,
+     * its move is proven best and is returned right away (and saved in the solved-position cache,
+     * which is checked before any of this). Otherwise, the proof-number solver gets a quarter of
+     * what's left (and no more than setProofNumberBudget's positions) to look for a forced win.
+     */
+    public static int getBestComputerMove(ReguBoard board, int maxDepth, long timeLimit) {
+        return getBestComputerMove(board, maxDepth, timeLimit, 1);
+    }
+    
+    /**
+     * Does the same as getBestComputerMove(board, maxDepth, timeLimit), but searches with
+     * THREADS threads (see ParallelSearch). With more than one thread, every iteration is
+     * a principal variation search with an aspiration window, whatever the search mode.
+     */
+    public static int getBestComputerMove(ReguBoard board, int maxDepth, long timeLimit, int threads) {
+        return search(board, maxDepth, timeLimit, threads, NO_NODE_LIMIT);
+    }
+    
+    /**
+     * Returns the best move for the computer that can be found by visiting at most NODE_LIMIT
+     * positions in TIME_LIMIT milliseconds (see Difficulty). Whichever limit is reached first
+     * stops the search, at which point the best move found so far is returned: the deepest
+     * iteration's, if it got far enough to prove that move better than the one before it.
+     *
+     * The opening book, the solved-position cache and the solvers are all left out, so that
+     * the computer doesn't play perfectly in the positions it happens to know (or the ones near
+     * the end of the game) and weakly everywhere else: it only ever has the budget's worth of
+     * search to go on. It searches with one thread, so a budget buys about as much search on any
+     * computer. (What's left in the transposition table and the move-ordering statistics
+     * from earlier moves still counts, though, so the same position won't always get the same move.)
+     */
+    public static int getBudgetedMove(ReguBoard board, long nodeLimit, long timeLimit) {
+        return search(board, BitBoard.SIZE, timeLimit, 1, nodeLimit);
+    }
+    
+    /**
+     * Does the work of getBestComputerMove and getBudgetedMove.
+     */
+    private static int search(ReguBoard board, int maxDepth, long timeLimit, int threads,
+            long maxNodes) {
+        BitBoard position = board.toBitBoard();
+        position.attachEvaluator();
+        table.nextGeneration();
+        if (sharedTable != null && sharedTable != table) {
+            sharedTable.nextGeneration(); // the parallel search's own table ages along with it
+        }
+        long start = System.nanoTime();
+        deadline = (timeLimit == NO_TIME_LIMIT) ? Long.MAX_VALUE : start + timeLimit * 1000000L;
+        timeUp = false;
+        nodesSearched = 0;
+        nodeLimit = maxNodes;
+        nextClockCheck = Math.min(CLOCK_CHECK_INTERVAL, nodeLimit);
+        ordering.age();
+        
+        // Fall back on the stored move (or just any legal move) if not even one iteration finishes
+        long wins = position.winningMoves();
+        lastMoveProven = (wins != 0);
+        if (wins != 0) {
+            return BitBoard.columnOf(wins); // no need to think about this one
+        }
+        boolean budgeted = (nodeLimit != NO_NODE_LIMIT); // if so, there's nothing but the search
+        int bookMove = budgeted ? TranspositionTable.NO_MOVE : book.getMove(position);
+        if (bookMove != TranspositionTable.NO_MOVE) {
+            lastMoveProven = true;
+            return bookMove;
+        }
+        int cached = budgeted ? 0 : cache.get(position);
+        if (cached != 0) {
+            lastMoveProven = true;
+            return SolvedCache.getMove(cached);
+        }
+        if (!budgeted && BitBoard.SIZE - position.getNumMoves() <= endgameEmptyCells) {
+            long endgameDeadline = (timeLimit == NO_TIME_LIMIT) ? Long.MAX_VALUE
+                    : start + timeLimit * 1000000L / 2;
+            EndgameSolver endgame = getSolver();
+            lastMoveProven = endgame.solve(position, endgameDeadline);
+            nodesSearched = endgame.getNodesSearched();
+            if (lastMoveProven) {
+                cache.put(position, endgame.getScore(), endgame.getBestMove(), true);
+                return endgame.getBestMove();
+            }
+        }
+        if (!budgeted && proofNumberNodes > 0) {
+            long now = System.nanoTime();
+            long proofDeadline = (timeLimit == NO_TIME_LIMIT) ? Long.MAX_VALUE
+                    : now + (deadline - now) / 4;
+            ProofNumberSearch pns = getProver();
+            boolean proven = pns.proveWin(position, proofNumberNodes, proofDeadline);
+            nodesSearched += pns.getNodesSearched();
+            if (proven) {
+                lastMoveProven = true;
+                cache.put(position, 1, pns.getBestMove(), false);
+                return pns.getBestMove();
+            }
+        }
+        int computerMove = position.canonicalMove(
+                TranspositionTable.getMove(table.probe(position.getKey())));
+        for (int i = 0; computerMove < 0; i++) {
+            if (position.canPlay(SELECTION_ORDER[i])) { computerMove = SELECTION_ORDER[i]; }
+        }
+        
+        nextClockCheck = Math.min(nodesSearched + CLOCK_CHECK_INTERVAL, nodeLimit);
+        int score = 0;
+        maxDepth = Math.min(maxDepth, BitBoard.SIZE - position.getNumMoves());
+        ParallelSearch parallel = (threads > 1) ? getParallelSearch(threads) : null;
+        if (parallel != null) {
+            parallel.startSearch(deadline);
+        }
+        for (int depth = 1; depth <= maxDepth; depth++) {
+            int s, move;
+            if (parallel != null) {
+                int alpha = (depth == 1) ? -MAX_SCORE : score - ASPIRATION_WINDOW;
+                int beta = (depth == 1) ? MAX_SCORE : score + ASPIRATION_WINDOW;
+                s = parallel.searchRoot(position, depth, alpha, beta, computerMove);
+                if (!parallel.isTimeUp() && (s <= alpha || s >= beta)) {
+                    s = parallel.searchRoot(position, depth, -MAX_SCORE, MAX_SCORE, computerMove);
                 }
+                move = parallel.getBestMove();
+                timeUp = parallel.isTimeUp();
+                nodesSearched = parallel.getNodesSearched();
+            } else if (searchMode == MTDF) {
+                s = mtdf(position, depth, score, computerMove);
+                move = rootBestMove;
+            } else {
+                int alpha = (depth == 1) ? -MAX_SCORE : score - ASPIRATION_WINDOW;
+                int beta = (depth == 1) ? MAX_SCORE : score + ASPIRATION_WINDOW;
+                s = searchRoot(position, depth, alpha, beta, computerMove);
+                if (!timeUp && (s <= alpha || s >= beta)) {
+                    // The score fell outside of the window, so we'll have to look again with a full one
+                    alpha = -MAX_SCORE;
+                    s = searchRoot(position, depth, alpha, MAX_SCORE, computerMove);
+                }
+                move = rootBestMove;
+                if (timeUp && s > alpha) {
+                    // Cut off partway, but the move in the lead scored above the window, so it's
+                    // proven at least as good as every move searched before it (the last best included)
+                    computerMove = move;
+                }
+            }
+            if (timeUp) { break; }
+            
+            score = s;
+            computerMove = move;
+            if (Math.abs(score) >= INFINITY) { // the game's outcome is already decided
+                lastMoveProven = true;
+                break;
             }
         }
         
         return computerMove;
     }
     
-    //================================================================================
-    // Minimax solution logic (with alpha-beta pruning)
-    //================================================================================
-    
     /**
-     * Evaluates MAX_DEPTH levels of game state possibilities with the minimax algorithm 
-     * and returns the computer's maximal heuristic game score. This method 
-     * will always assume that the computer plays as the color COMPUTER_COLOR.
-     * 
-     * @param board the board over which the algorithm is being run
-     * @param depth the number of turns (/current recursive depth). Always begins at 0
-     * @param prevPiece the piece that was previously played
-     * @param alpha the maximum score that the computer is guaranteed to get
-     * @param beta the minimum score that the player is guaranteed to get
-     * @param isComputer a boolean specifying whether it's the computer's turn or not
-     */
-    private static int minimax(ReguBoard board, int depth, Piece prevPiece, int alpha, 
-            int beta, boolean isComputer) {
-        if (board.makesFour(prevPiece)) {
-            if (COMPUTER_COLOR.equals(prevPiece.color)) { return INFINITY + depth * 5; }
-            else { return -INFINITY - depth * 5; }
-        } else if (board.isBoardFull()) {
-            return 0;
-        } else if (depth == 0) {
-            // Heuristic scoring
-            return heuristicEval(board);
+     * Returns a perfect move for the computer on BOARD, if it can find one within TIME_LIMIT
+     * milliseconds (or NO_TIME_LIMIT). The position is solved outright: first just for its outcome
+     * (win, draw or loss), and then, if there's time, for the quickest win (or slowest loss).
+     * Positions in the opening book or the solved-position cache are just looked up, and whatever
+     * gets solved goes into the cache. If it can't be solved in three quarters of the time,
+     * the rest goes to an ordinary search, and isLastMoveProven will say so.
+     */
+    public static int getPerfectMove(ReguBoard board, long timeLimit) {
+        BitBoard position = board.toBitBoard();
+        int bookMove = book.getMove(position);
+        if (bookMove != TranspositionTable.NO_MOVE) {
+            lastMoveProven = true;
+            return bookMove;
+        }
+        int cached = cache.get(position);
+        if (cached != 0 && SolvedCache.isExact(cached)) {
+            lastMoveProven = true;
+            return SolvedCache.getMove(cached);
         }
         
-        // The game isn't over, so we'll continue the recursion
-        if (isComputer) {
-            // Since it's the computer's turn, we want the MAX heuristic score
-            for (int c : SELECTION_ORDER) {
-                if (!board.isColumnFull(c)) { // if a column's not full, then it's a possible move
-                    // Create a piece for the computer to [theoretically] place
-                    int lowRow = board.lowestOpenRow(c);
-                    Piece p = new Piece(board.getCurrPlayer(), c, lowRow);
-                    
-                    // Simulate the new board configuration
-                    Piece[][] newBoard = board.cloneBoard();
-                    newBoard[lowRow][c] = p;
-                    ReguBoard b = new ReguBoard(newBoard, board.getNumPieces() + 1, board.otherPlayer());
-                    
-                    // Check if the move yields the best score we've seen so far
-                    alpha = Math.max(alpha, minimax(b, depth - 1, p, alpha, beta, false));
-                    if (beta <= alpha) { break; }
-                }
+        long start = System.nanoTime();
+        long solveDeadline = (timeLimit == NO_TIME_LIMIT) ? Long.MAX_VALUE
+                : start + timeLimit * 1000000L * 3 / 4;
+        
+        EndgameSolver perfect = getSolver();
+        if (cached != 0 || perfect.solveOutcome(position, solveDeadline)) {
+            int move;
+            if (cached != 0) {
+                move = SolvedCache.getMove(cached);
+            } else {
+                move = perfect.getBestMove();
+                cache.put(position, perfect.getScore(), move, false);
+            }
+            if (perfect.solve(position, solveDeadline)) {
+                move = perfect.getBestMove();
+                cache.put(position, perfect.getScore(), move, true);
             }
+            lastMoveProven = true;
+            return move;
+        }
+        
+        long timeLeft = (timeLimit == NO_TIME_LIMIT) ? NO_TIME_LIMIT
+                : Math.max(1, timeLimit - (System.nanoTime() - start) / 1000000L);
+        return getBestComputerMove(board, BitBoard.SIZE, timeLeft);
+    }
+    
+    /**
+     * Solves every move that can be played on BOARD, spending at most TIME_LIMIT milliseconds
+     * in all (or NO_TIME_LIMIT), and returns the results indexed by column.
+     * Full columns get null; columns that couldn't be solved in time are UNKNOWN.
+     * Positions in the opening book or the solved-position cache are looked up, but the book
+     * (and sometimes the cache) only knows their outcomes, so their plies are unknown.
+     */
+    public static ColumnResult[] solveColumns(ReguBoard board, long timeLimit) {
+        BitBoard position = board.toBitBoard();
+        long deadline = (timeLimit == NO_TIME_LIMIT) ? Long.MAX_VALUE
+                : System.nanoTime() + timeLimit * 1000000L;
+        ColumnResult[] results = new ColumnResult[BitBoard.WIDTH];
+        int numMoves = position.getNumMoves();
+        
+        EndgameSolver perfect = getSolver();
+        for (int c : SELECTION_ORDER) {
+            if (!position.canPlay(c)) { continue; }
             
-            return alpha;
+            BitBoard child = new BitBoard(position);
+            child.play(c);
+            int cached = cache.get(child);
+            results[c] = lookUpColumn(child, c, numMoves, cached);
+            if (results[c] != null) {
+                continue;
+            } else if (perfect.solve(child, deadline)) {
+                results[c] = ColumnResult.fromScore(c, -perfect.getScore(), numMoves);
+                cache.put(child, perfect.getScore(), perfect.getBestMove(), true);
+            } else if (cached != 0) {
+                results[c] = new ColumnResult(c, -SolvedCache.getScore(cached), -1);
+            } else {
+                results[c] = ColumnResult.unknown(c);
+            }
+        }
+        
+        return results;
+    }
+    
+    /**
+     * Returns the result of playing in column COL, given the position CHILD that it leads to
+     * (from a position where NUM_MOVES moves had been played), if the result can be had without
+     * searching: because the move ends the game, or the position is in the solved-position cache
+     * (with an exact score) or the opening book. Otherwise returns null. CACHED is what the
+     * cache has for CHILD (see SolvedCache.get), which the caller has already looked up.
+     */
+    private static ColumnResult lookUpColumn(BitBoard child, int col, int numMoves, int cached) {
+        if (child.hasFour(child.getLastMover())) {
+            return ColumnResult.fromScore(col, winScore(numMoves + 1), numMoves);
+        } else if (child.isFull()) {
+            return ColumnResult.fromScore(col, 0, numMoves);
+        } else if (cached != 0 && SolvedCache.isExact(cached)) {
+            return ColumnResult.fromScore(col, -SolvedCache.getScore(cached), numMoves);
+        } else if (book.getOutcome(child) != ColumnResult.UNKNOWN) {
+            return new ColumnResult(col, -book.getOutcome(child), -1);
+        }
+        return null;
+    }
+    
+    /**
+     * Analyzes every move that can be played on BOARD, looking at most MAX_DEPTH plies ahead and
+     * spending at most TIME_LIMIT milliseconds (or NO_TIME_LIMIT), and returns what it found
+     * indexed by column (with null for the full ones). Unlike getBestComputerMove, which only
+     * needs to know that a move is worse than the best one, every column gets an exact score
+     * and a principal variation, and its outcome if that can be proven.
+     *
+     * Outcomes are looked up in the solved-position cache and the opening book first (and once
+     * there are few enough empty cells, the columns are solved with half of the time, as in
+     * solveColumns), and the columns that those prove are scored by their outcomes. Then the rest
+     * are searched one at a time, one iteration of deepening after another. They all share
+     * the transposition table, so most of what's learned about one column (including all of it,
+     * for its mirror image) is already there for the next.
+     * When time runs out, each column keeps its deepest finished score; see ColumnAnalysis.depth.
+     */
+    public static ColumnAnalysis[] analyze(ReguBoard board, int maxDepth, long timeLimit) {
+        BitBoard position = board.toBitBoard();
+        position.attachEvaluator();
+        table.nextGeneration();
+        long start = System.nanoTime();
+        int numMoves = position.getNumMoves();
+        
+        ColumnResult[] results;
+        if (BitBoard.SIZE - numMoves <= endgameEmptyCells) {
+            results = solveColumns(board, (timeLimit == NO_TIME_LIMIT) ? NO_TIME_LIMIT : timeLimit / 2);
         } else {
-            // It's the player's turn, who wants to MINIMIZE the computer's score
-            for (int c : SELECTION_ORDER) {
-                if (!board.isColumnFull(c)) { // if a column's not full, then it's a possible move
-                    // Create a piece for the computer to [theoretically] place
-                    int lowRow = board.lowestOpenRow(c);
-                    Piece p = new Piece(board.getCurrPlayer(), c, lowRow);
-                
-                    // Simulate the new board configuration
-                    Piece[][] newBoard = board.cloneBoard();
-                    newBoard[lowRow][c] = p;
-                    ReguBoard b = new ReguBoard(newBoard, board.getNumPieces() + 1, board.otherPlayer());
-                    
-                    // Cut off fruitless subtrees (beta cutoff)
-                    beta = Math.min(beta, minimax(b, depth - 1, p, alpha, beta, true));
-                    if (beta <= alpha) { break; }
+            results = new ColumnResult[BitBoard.WIDTH];
+            for (int c = 0; c < BitBoard.WIDTH; c++) {
+                if (!position.canPlay(c)) { continue; }
+                BitBoard child = new BitBoard(position);
+                child.play(c);
+                results[c] = lookUpColumn(child, c, numMoves, cache.get(child));
+                if (results[c] == null) {
+                    results[c] = ColumnResult.unknown(c);
                 }
             }
+        }
+        
+        deadline = (timeLimit == NO_TIME_LIMIT) ? Long.MAX_VALUE : start + timeLimit * 1000000L;
+        timeUp = false;
+        nodesSearched = 0;
+        nodeLimit = NO_NODE_LIMIT;
+        nextClockCheck = CLOCK_CHECK_INTERVAL;
+        ordering.age();
+        
+        // Columns that are already proven (including those that end the game) need no search;
+        // the rest are searched until they're proven
+        int[] scores = new int[BitBoard.WIDTH], depths = new int[BitBoard.WIDTH];
+        int[][] pvs = new int[BitBoard.WIDTH][];
+        Integer[] order = new Integer[BitBoard.WIDTH];
+        int numColumns = 0;
+        for (int c : SELECTION_ORDER) {
+            if (results[c] == null) { continue; }
+            pvs[c] = new int[] {c};
+            if (results[c].outcome != ColumnResult.UNKNOWN) {
+                scores[c] = results[c].toScore(numMoves);
+                depths[c] = (results[c].plies >= 0) ? results[c].plies : BitBoard.SIZE - numMoves;
+            } else {
+                order[numColumns++] = c;
+            }
+        }
+        
+        maxDepth = Math.min(maxDepth, BitBoard.SIZE - numMoves);
+        for (int depth = 1; depth <= maxDepth && numColumns > 0 && !timeUp; depth++) {
+            // The best-looking columns go first, since they make the best use of the table
+            Arrays.sort(order, 0, numColumns, (a, b) -> scores[b] - scores[a]);
+            for (int i = 0; i < numColumns && !timeUp; i++) {
+                int c = order[i];
+                int alpha = (depth == 1) ? -MAX_SCORE : scores[c] - ASPIRATION_WINDOW;
+                int beta = (depth == 1) ? MAX_SCORE : scores[c] + ASPIRATION_WINDOW;
+                position.play(c);
+                int s = -negamax(position, depth - 1, -beta, -alpha);
+                if (!timeUp && (s <= alpha || s >= beta)) {
+                    s = -negamax(position, depth - 1, -MAX_SCORE, MAX_SCORE);
+                }
+                position.undo(c);
+                if (timeUp) { break; }
+                
+                scores[c] = s;
+                depths[c] = depth;
+                pvs[c] = principalVariation(position, c, depth + 2);
+            }
             
-            return beta;
+            // Wins and losses that the search has found are proven, so they're done with
+            for (int i = 0; i < numColumns; i++) {
+                int c = order[i];
+                if (depths[c] == depth && Math.abs(scores[c]) >= INFINITY) {
+                    order[i--] = order[--numColumns];
+                }
+            }
         }
+        
+        ColumnAnalysis[] analysis = new ColumnAnalysis[BitBoard.WIDTH];
+        for (int c = 0; c < BitBoard.WIDTH; c++) {
+            if (results[c] == null) { continue; }
+            ColumnResult result = results[c];
+            if (Math.abs(scores[c]) > INFINITY
+                    && (result.outcome == ColumnResult.UNKNOWN || result.plies < 0)) {
+                result = ColumnResult.fromScore(c, scores[c], numMoves);
+            } else if (Math.abs(scores[c]) == INFINITY && result.outcome == ColumnResult.UNKNOWN) {
+                // The strategy rules proved it, but they don't say when the game ends
+                result = new ColumnResult(c, (scores[c] > 0) ? ColumnResult.WIN : ColumnResult.LOSS, -1);
+            }
+            analysis[c] = new ColumnAnalysis(result, scores[c], depths[c], pvs[c]);
+        }
+        
+        return analysis;
     }
     
     /**
-     * Heuristically evaluates a Connect4 board and assigns to it a score 
-     * representing the strength of the computer's position. [This is the 
-     * value that will be returned.]
-     *
-     * In order to quantify positional strength, this method will take into account
-     * the number of connected fours, threes, and twos for each side.
-     * @param board the Connect4 board to evaluate
-     * @return a score heuristic for the computer (positive is good, negative is bad)
+     * Returns the line of play that the search expects after the move COL on POSITION, starting
+     * with COL and at most LENGTH plies long. It's read off of the transposition table (taking
+     * any immediate win along the way, since those aren't stored), so it stops early if
+     * a position along it has been overwritten.
      */
-    private static int heuristicEval(ReguBoard board) {
-        Piece[][] b = board.getBoard();
-        return getHorizontalScore(b) + getVerticalScore(b) + getDiagonalScore(b);
+    private static int[] principalVariation(BitBoard position, int col, int length) {
+        BitBoard board = new BitBoard(position);
+        int[] pv = new int[length];
+        int n = 0;
+        pv[n++] = col;
+        board.play(col);
+        while (n < length && !board.hasFour(board.getLastMover()) && !board.isFull()) {
+            int move;
+            long wins = board.winningMoves();
+            if (wins != 0) {
+                move = BitBoard.columnOf(wins);
+            } else {
+                long entry = table.probe(board.getKey());
+                move = (entry == 0) ? TranspositionTable.NO_MOVE
+                        : board.canonicalMove(TranspositionTable.getMove(entry));
+                if (move < 0 || !board.canPlay(move)) { break; }
+            }
+            pv[n++] = move;
+            board.play(move);
+        }
+        
+        return Arrays.copyOf(pv, n);
     }
     
     /**
-     * Returns the score that the computer receives for [potential] horizontal piece combinations.
-     * Points are awarded for chains of two or three that have the potential to become four.
-     * 
-     * For such chains of two, 25 points will be awarded; for such chains of three, 125 points
-     * will be awarded (to Gryffindor). No chains of four should exist.
-     * 
-     * @param b an array representation of the Connect4 board to evaluate
-     * @return a horizontal score heuristic
+     * Returns a parallel search with THREADS threads, creating it if need be. It shares the AI's
+     * table if that's an OffHeapTable (which is safe for concurrent use); otherwise it gets
+     * an off-heap table of its own, the same size as the usual one.
      */
-    private static int getHorizontalScore(Piece[][] b) {
-        int score = 0;
-        Piece p; // the piece we're currently examining
-        CountTracker tracker = new CountTracker();
+    private static ParallelSearch getParallelSearch(int threads) {
+        if (parallelSearch != null && parallelSearch.getThreads() == threads) {
+            return parallelSearch;
+        }
+        
+        if (parallelSearch != null) {
+            parallelSearch.shutdown();
+        }
+        if (sharedTable == null) {
+            sharedTable = (table instanceof OffHeapTable) ? table
+                    : new OffHeapTable((1L << TABLE_SIZE_BITS) * 16);
+        }
+        parallelSearch = new ParallelSearch(sharedTable, threads);
+        return parallelSearch;
+    }
+    
+    /**
+     * Returns the exact solver, creating it if this is the first time it's been needed.
+     */
+    private static EndgameSolver getSolver() {
+        if (solver == null) {
+            solver = new EndgameSolver(ENDGAME_TABLE_BITS);
+        }
+        
+        return solver;
+    }
+    
+    /**
+     * Returns the perfect move for the player to move on BOARD, a small board (laid out as in
+     * Board, in which nobody has won yet), from its tablebase. Returns TranspositionTable.NO_MOVE
+     * if there's no tablebase for a board of its size (see Tablebase.load).
+     */
+    public static int getTablebaseMove(Piece[][] board) {
+        Tablebase tablebase = getTablebase(board[0].length, board.length);
+        return (tablebase == null) ? TranspositionTable.NO_MOVE : tablebase.getBestMove(board);
+    }
+    
+    /**
+     * Returns the tablebase for WIDTH x HEIGHT boards, loading it if this is the first time
+     * it's been asked for, or null if there isn't one.
+     */
+    static synchronized Tablebase getTablebase(int width, int height) {
+        return tablebases.computeIfAbsent(width * 64 + height,
+                key -> Optional.ofNullable(Tablebase.load(width, height))).orElse(null);
+    }
+    
+    /**
+     * Returns the proof-number solver, creating it if this is the first time it's been needed.
+     */
+    private static ProofNumberSearch getProver() {
+        if (prover == null) {
+            prover = new ProofNumberSearch(PROOF_NUMBER_MEMORY);
+        }
+        
+        return prover;
+    }
+    
+    /**
+     * Tries to prove the outcome of BOARD (in which nobody has won yet) for the player to move,
+     * looking at no more than MAX_NODES positions. Returns ColumnResult.WIN, DRAW or LOSS if it can,
+     * and ColumnResult.UNKNOWN otherwise. Unlike getPerfectMove, this never runs past its budget,
+     * so it's safe to call on positions that are nowhere near solvable.
+     */
+    public static int proveOutcome(ReguBoard board, long maxNodes) {
+        return getProver().solve(board, maxNodes);
+    }
+    
+    /**
+     * Returns the move that keeps the result of the most recent proveOutcome call
+     * (any legal move, if the result was a loss, and NO_MOVE if it was unknown).
+     */
+    public static int getProvenMove() {
+        return getProver().getBestMove();
+    }
+    
+    /**
+     * Returns the number of positions visited by the most recent call to getBestComputerMove.
+     */
+    static long getNodesSearched() {
+        return nodesSearched;
+    }
+    
+    /**
+     * Finds the exact depth-DEPTH score of POSITION with the MTD(f) algorithm:
+     * a sequence of zero-width searches that start at the guess GUESS and close in on the real
+     * score from above and below. Leaves the best move in rootBestMove.
+     */
+    private static int mtdf(BitBoard position, int depth, int guess, int firstMove) {
+        int lower = -MAX_SCORE, upper = MAX_SCORE;
+        int bestMove = firstMove;
+        while (lower < upper && !timeUp) {
+            int beta = Math.max(guess, lower + 1);
+            guess = searchRoot(position, depth, beta - 1, beta, bestMove);
+            if (guess < beta) {
+                upper = guess; // failed low
+            } else {
+                lower = guess; // failed high, so this move is at least as good as GUESS
+                bestMove = rootBestMove;
+            }
+        }
+        
+        rootBestMove = bestMove;
+        return guess;
+    }
+    
+    /**
+     * Searches every computer move from POSITION to depth DEPTH within the window (ALPHA, BETA),
+     * trying FIRST_MOVE first. Returns the score of the best move and saves the move itself
+     * in rootBestMove.
+     *
+     * Like negamax, this is a principal variation search: only the first move gets
+     * the full window, and the rest are just checked to see whether they can beat it.
+     */
+    private static int searchRoot(BitBoard position, int depth, int alpha, int beta, int firstMove) {
+        int alphaOrig = alpha;
+        int best = -MAX_SCORE;
+        rootBestMove = TranspositionTable.NO_MOVE;
+        long allowed = position.nonLosingMoves();
+        if (allowed == 0) {
+            allowed = position.possibleMoves(); // we've lost, but we'll still put up a fight
+        }
+        allowed = position.dropMirroredMoves(allowed);
+        int[] moves = moveLists[position.getNumMoves()];
+        int numMoves = ordering.orderMoves(position, firstMove, allowed, moves, moveKeys);
+        for (int i = 0; i < numMoves; i++) {
+            int c = moves[i];
             
-        for (int r = ReguBoard.boardHeight - 1; r >= 0; r--) { // start from the bottom up
-            for (int c = 0; c < ReguBoard.boardWidth; c++) { // start from the left rightward
-                p = b[r][c]; // kind of like pv = nrt, except not really at all
-                
-                if (p == null) {
-                    tracker.recentEmptyCount += 1;
-                } else if (p.color.equals(tracker.color)) {
-                    tracker.nrEmptyCount += tracker.recentEmptyCount;
-                    tracker.recentEmptyCount = 0;
-                    tracker.fullCount += 1;
-                } else {
-                    score += tracker.getScore();
-                    tracker.reset(p.color, true, true);
-                }
+            // Simulate the new board configuration
+            position.play(c);
+            int score = searchChild(position, depth - 1, alpha, beta, i == 0);
+            position.undo(c);
+            if (timeUp) { return best; }
+            
+            // Check if the move yields the best score we've seen so far
+            if (score > best) {
+                best = score;
+                rootBestMove = c;
+                alpha = Math.max(alpha, score);
             }
             
-            score += tracker.getScore();
-            tracker.reset("", false, false);
+            if (alpha >= beta) { break; }
         }
         
-        return score;
+        int bound = (best <= alphaOrig) ? TranspositionTable.UPPER
+                : (best >= beta) ? TranspositionTable.LOWER : TranspositionTable.EXACT;
+        table.store(position.getKey(), best, depth, bound, position.canonicalMove(rootBestMove));
+        return best;
     }
     
     /**
-     * Returns the score that the computer receives for [potential] vertical piece combinations.
-     * The hierarchy of points awarded is identical to that of the horizontal scoring method.
-     * 
-     * @param b an array representation of the Connect4 board to evaluate
-     * @return a vertical score heuristic
+     * Returns the score for a win that happens on move NUM_MOVES.
+     * Quicker wins are worth more, and the score depends only on the position
+     * (not on how deep into the search it was found), so it can be stored in the table.
      */
-    private static int getVerticalScore(Piece[][] b) {
-        int score = 0;
-        Piece p;
-        CountTracker tracker = new CountTracker();
-        
-        for (int c = 0; c < ReguBoard.boardWidth; c++) {
-            for (int r = ReguBoard.boardHeight - 1; r >= 0; r--) { // traveling upward
-                p = b[r][c];
-                
-                if (p == null) {
-                    tracker.recentEmptyCount += 1;
-                } else if (p.color.equals(tracker.color)) {
-                    tracker.fullCount += 1;
-                } else {
-                    score += tracker.getScore();
-                    tracker.reset(p.color, true, false);
-                }
+    static int winScore(int numMoves) {
+        return INFINITY + (BitBoard.SIZE - numMoves) * 5;
+    }
+    
+    //================================================================================
+    // Minimax solution logic (negamax, with alpha-beta pruning and principal variations)
+    //================================================================================
+    
+    /**
+     * Adds N to the number of nodes searched, and looks at the clock every so often
+     * (and stops the search once it's used up its nodes).
+     */
+    private static void countNodes(int n) {
+        nodesSearched += n;
+        if (nodesSearched >= nextClockCheck) {
+            nextClockCheck = Math.min(nodesSearched + CLOCK_CHECK_INTERVAL, nodeLimit);
+            if (System.nanoTime() > deadline || nodesSearched >= nodeLimit) {
+                timeUp = true;
             }
-            
-            score += tracker.getScore();
-            tracker.reset("", false, false);
+        }
+    }
+    
+    /**
+     * Returns the score of a move that has just been played on BOARD, from the point of view
+     * of the player who played it. If FIRST is true the move gets the full (ALPHA, BETA) window;
+     * otherwise it's searched with a zero-width window at ALPHA, and then searched again
+     * with the full window only if it turns out to be better than ALPHA.
+     */
+    private static int searchChild(BitBoard board, int depth, int alpha, int beta, boolean first) {
+        if (first) {
+            return -negamax(board, depth, -beta, -alpha);
+        }
+        
+        int score = -negamax(board, depth, -alpha - 1, -alpha);
+        if (score > alpha && score < beta) {
+            score = -negamax(board, depth, -beta, -alpha); // it's a new best move, so get its real score
         }
         
         return score;
     }
     
     /**
-     * Returns the score that the computer receives for [potential] diagonal piece combinations.
-     * The hierarchy of points awarded is identical to that of the horizontal scoring method.
+     * Evaluates DEPTH levels of game state possibilities with the negamax form of minimax,
+     * and returns the score of BOARD for whichever player's turn it is there.
+     * (Each player's score is the negation of the other's, so one method can handle both sides.)
+     * The score is "fail-soft": if it's at most ALPHA, it's an upper bound on the real score,
+     * and if it's at least BETA, it's a lower bound.
+     * 
+     * Immediate wins and losses are read off of bitboard masks, so a node never searches
+     * a move that hands the other player a win.
      * 
-     * @param b an array representation of the Connect4 board to evaluate
-     * @return a diagonal score heuristic
+     * Moves are simulated by playing and undoing them on the same bitboard (which must have
+     * an evaluator attached), so BOARD is left unchanged once this method returns. Leaves are
+     * scored by the evaluator, which also ends the search early once nobody can connect four.
+     * Results are looked up in (and saved to) the transposition table;
+     * see MoveOrdering.orderMoves for the order moves are tried in.
+     * 
+     * @param board the board over which the algorithm is being run
+     * @param depth the number of turns left to look ahead
+     * @param alpha the score that the player to move is already guaranteed to get
+     * @param beta the score past which the other player would never let us get here
      */
-    private static int getDiagonalScore(Piece[][] b) {
-        int score = 0;
-        Piece p;
-        CountTracker tracker = new CountTracker();
+    private static int negamax(BitBoard board, int depth, int alpha, int beta) {
+        countNodes(1);
+        if (timeUp) { return 0; } // the result will be thrown away anyway
         
-        // Traveling in a bottom-right direction
-        for (int sc = 0; sc <= 3; sc++) {
-            for (int sr = 0; sr <= 2; sr++) {
-                // We have our starting point at (sr, sc).
-                // Now iterate until we hit the bottom
-                
-                for (int r = sr, c = sc; r < 6 && c < 7; r++, c++) { // 6 & 7 are board dimensions
-                    p = b[r][c];
-                    
-                    if (p == null) {
-                        tracker.recentEmptyCount += 1;
-                    } else if (p.color.equals(tracker.color)) {
-                        tracker.nrEmptyCount += tracker.recentEmptyCount;
-                        tracker.recentEmptyCount = 0;
-                        tracker.fullCount += 1;
-                    } else {
-                        score += tracker.getScore();
-                        tracker.reset(p.color, true, true);
-                    }
+        // Nobody can have won yet: the player before us would have been stopped one move earlier
+        Evaluator evaluator = board.getEvaluator();
+        if (board.isFull() || !evaluator.canAnyoneWin()) {
+            return 0; // a draw (or, at least, certain to become one)
+        } else if (board.winningMoves() != 0) {
+            return winScore(board.getNumMoves() + 1); // we win on this move
+        }
+        long allowed = board.nonLosingMoves();
+        if (allowed == 0) {
+            return -winScore(board.getNumMoves() + 2); // the other player wins on the next move
+        } else if (depth == 0) {
+            return evaluator.getScore(board.getToMove()); // heuristic scoring
+        }
+        
+        // See if we've already searched this position
+        long key = board.getKey(); // the same for mirror images, so moves have to be flipped to match
+        long entry = table.probe(key);
+        int ttMove = TranspositionTable.NO_MOVE;
+        if (entry != 0) {
+            ttMove = board.canonicalMove(TranspositionTable.getMove(entry));
+            if (TranspositionTable.getDepth(entry) >= depth) {
+                int score = TranspositionTable.getScore(entry);
+                switch (TranspositionTable.getBound(entry)) {
+                    case TranspositionTable.EXACT:
+                        return score;
+                    case TranspositionTable.LOWER:
+                        alpha = Math.max(alpha, score);
+                        break;
+                    default:
+                        beta = Math.min(beta, score);
                 }
-                
-                score += tracker.getScore();
-                tracker.reset("", false, false);
+                if (beta <= alpha) { return score; }
             }
         }
         
-        // Traveling in an up-right direction
-        for (int sc = 0; sc <= 3; sc++) {
-            for (int sr = 3; sr <= 5; sr++) {
-                // Again, we have our starting point at (sr, sc).
-                // This time, we'll iterate till we hit the top
-                
-                for (int r = sr, c = sc; r >= 0 && c < 7; r--, c++) {
-                    p = b[r][c];
-                    
-                    if (p == null) {
-                        tracker.recentEmptyCount += 1;
-                    } else if (p.color.equals(tracker.color)) {
-                        tracker.nrEmptyCount += tracker.recentEmptyCount;
-                        tracker.recentEmptyCount = 0;
-                        tracker.fullCount += 1;
-                    } else {
-                        score += tracker.getScore();
-                        tracker.reset(p.color, true, true);
-                    }
+        // See if the strategy rules can settle things without searching any further.
+        // The result is only good for a cutoff: it bounds the real score from above.
+        if (depth >= STATIC_SOLVER_MIN_DEPTH && alpha >= -INFINITY) {
+            int result = StaticSolver.solve(board);
+            if (result == StaticSolver.LOSS) {
+                return -INFINITY; // we'll lose, but we don't know when (so it's at least this bad)
+            } else if (result == StaticSolver.NO_WIN && alpha >= 0) {
+                return 0;
+            }
+        }
+        
+        // The game isn't over, so we'll continue the recursion
+        allowed = board.dropMirroredMoves(allowed);
+        if (depth == 1) {
+            return searchFrontier(board, key, allowed, alpha, beta);
+        }
+        int alphaOrig = alpha;
+        int best = -MAX_SCORE;
+        int bestMove = TranspositionTable.NO_MOVE;
+        int[] moves = moveLists[board.getNumMoves()];
+        int numMoves = ordering.orderMoves(board, ttMove, allowed, moves, moveKeys);
+        for (int i = 0; i < numMoves; i++) {
+            int c = moves[i];
+            board.play(c);
+            int score = searchChild(board, depth - 1, alpha, beta, i == 0);
+            board.undo(c);
+            
+            // Check if the move yields the best score we've seen so far
+            if (score > best) {
+                best = score;
+                if (score > alpha) {
+                    alpha = score;
+                    bestMove = c;
                 }
-                
-                score += tracker.getScore();
-                tracker.reset("", false, false);
+            }
+            if (alpha >= beta) { // cut off fruitless subtrees
+                ordering.recordCutoff(board, c, depth);
+                break;
             }
         }
         
-        return score;
+        if (!timeUp) {
+            int bound = (best <= alphaOrig) ? TranspositionTable.UPPER
+                    : (best >= beta) ? TranspositionTable.LOWER : TranspositionTable.EXACT;
+            table.store(key, best, depth, bound, board.canonicalMove(bestMove));
+        }
+        return best;
     }
     
     /**
-     * A tool to keep track of connected runs during game state evaluation.
-     *
-     * Includes a tally of empty spaces during a run, so that the tracker
-     * can take disjoint sets of pieces into account.
-     */
-    private static class CountTracker {
-        int fullCount; // number of spots in the streak that are full
-        int nrEmptyCount; // number of spots in the streak that are empty and not recent
-        int recentEmptyCount; // number of empty spots on the right/bottom of the current streak
-        String color = ""; // color of the current streak
+     * Does the work of negamax at depth 1 (a "frontier" node, whose children are all leaves),
+     * for BOARD with the table key KEY and the moves ALLOWED, by scoring the children in one batch
+     * (see Frontier). Returns what negamax would have.
+     */
+    private static int searchFrontier(BitBoard board, long key, long allowed, int alpha, int beta) {
+        int best = frontier.search(board, allowed, beta);
+        countNodes(frontier.getNumSearched());
+        if (timeUp) { return 0; }
         
-        /**
-         * Returns the computer-oriented score contained within the tracker.
-         */
-        int getScore() {
-            if (!color.isEmpty() && fullCount + nrEmptyCount + recentEmptyCount >= 4) {
-                fullCount = Math.min(fullCount, 4); // 5 unconnected isn't actually any better
-                return (color.equals(COMPUTER_COLOR)) ? 
-                        (int) (Math.pow(5, fullCount)) : (int) (-Math.pow(5, fullCount));
-            } else {
-                return 0;
-            }
-        }
-    
-        /**
-         * Resets values in the tracker.
-         * @param the color to set the new streak to
-         * @param newStreak describes whether this is the beginning of a new streak
-         * @param useRecent describes whether the recent empty squares should be taken into account
-         */
-        void reset(String color, boolean newStreak, boolean useRecent) {
-            this.color = color;
-            fullCount = (newStreak) ? 1 : 0;
-            nrEmptyCount = (useRecent) ? recentEmptyCount : 0;
-            recentEmptyCount = 0;
+        int bestMove = frontier.getBestMove();
+        if (best >= beta) {
+            ordering.recordCutoff(board, bestMove, 1);
+        } else if (best <= alpha) {
+            bestMove = TranspositionTable.NO_MOVE; // we don't know which move is really best
         }
+        int bound = (best <= alpha) ? TranspositionTable.UPPER
+                : (best >= beta) ? TranspositionTable.LOWER : TranspositionTable.EXACT;
+        table.store(key, best, 1, bound, board.canonicalMove(bestMove));
+        return best;
     }
 }
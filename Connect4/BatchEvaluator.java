@@ -0,0 +1,230 @@
+package Connect4;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+
+/**
+ * Scores whole batches of positions at once, with the same heuristic as Evaluator,
+ * for offline analysis that has millions of positions to get through and no BitBoard objects
+ * (or incremental evaluators) to go with them. (During a search, the AI batches up the children
+ * of its frontier nodes with Evaluator.scoreMoves instead, which can start from the parent's score.)
+ *
+ * Positions are passed in as parallel arrays of bitboards, one entry per position, and every
+ * position goes through exactly the same straight-line code (no branches that depend on the
+ * position), which keeps the loops over the batch friendly to the JIT compiler.
+ *
+ * Within a position, all of the windows are handled together, one direction at a time:
+ * shifting a bitboard by a direction's step lines up the four squares of every window
+ * on the window's starting square, and a few ANDs and XORs add them up (as a 3-bit number
+ * spread over three bitboards). Then the number of windows with one, two, three or four
+ * pieces is just a bit count.
+ *
+ * VectorBatchEvaluator does the same thing with SIMD lanes across positions, using the
+ * incubating Vector API (jdk.incubator.vector). Since that module has to be asked for when
+ * compiling and running, the class lives in a source folder of its own (vector/) and is found
+ * by reflection. It's only used when the VECTOR_PROPERTY system property is "true", since
+ * it isn't any faster than the code here on every processor; main times a run, with or
+ * without it, to find out which is better on this one.
+ * @author Owen Jow
+ */
+public class BatchEvaluator {
+    static final String VECTOR_PROPERTY = "connect4.vectorEvaluator"; // "true" to use the Vector API
+    static final int VECTOR_MIN_BATCH = 16; // smaller batches aren't worth handing to the Vector API
+    private static final MethodHandle VECTOR_EVALUATE = findVectorEvaluator(); // or null
+
+    // The steps between squares in a window: vertical, horizontal, and the two diagonals
+    static final int[] STEPS = {1, BitBoard.H1, BitBoard.H1 + 1, BitBoard.HEIGHT};
+
+    // STARTS[d] holds the squares that a window in direction d can start on
+    // (i.e. the ones where the other three squares are still on the board)
+    static final long[] STARTS = new long[STEPS.length];
+    static {
+        int[][] deltas = {{0, 1}, {1, 0}, {1, 1}, {1, -1}}; // (columns, rows) per step
+        for (int d = 0; d < STEPS.length; d++) {
+            for (int c = 0; c < BitBoard.WIDTH; c++) {
+                for (int r = 0; r < BitBoard.HEIGHT; r++) {
+                    int endC = c + 3 * deltas[d][0], endR = r + 3 * deltas[d][1];
+                    if (endC < BitBoard.WIDTH && endR >= 0 && endR < BitBoard.HEIGHT) {
+                        STARTS[d] |= BitBoard.bit(r, c);
+                    }
+                }
+            }
+        }
+    }
+
+    private BatchEvaluator() {}
+
+    /**
+     * Returns VectorBatchEvaluator.evaluate, or null if it hasn't been asked for (with
+     * VECTOR_PROPERTY), or if that class isn't there or can't be used (because jdk.incubator.vector
+     * wasn't added to the modules this program runs with).
+     */
+    private static MethodHandle findVectorEvaluator() {
+        if (!Boolean.getBoolean(VECTOR_PROPERTY)) {
+            return null;
+        }
+        try {
+            Class<?> vector = Class.forName("Connect4.VectorBatchEvaluator");
+            return MethodHandles.lookup().findStatic(vector, "evaluate", MethodType.methodType(
+                    void.class, long[].class, long[].class, int[].class, int.class));
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+
+    /**
+     * Scores every position in the first few plies of the game, and compares the scores with the
+     * outcomes in the opening book, wherever it has them. Usage:
+     *   java [-Dconnect4.vectorEvaluator=true] Connect4.BatchEvaluator [MAX_PLY] [RUNS]
+     * MAX_PLY is how many plies in to go (8, by default), and the batch is scored RUNS times
+     * (5, by default) to give the JIT compiler time to warm up; the fastest run is reported.
+     * For each outcome, this prints how many positions have it, their mean score, and how often
+     * the score points the same way (a positive score for a win, and so on).
+     */
+    public static void main(String[] args) {
+        int maxPly = (args.length > 0) ? Integer.parseInt(args[0]) : 8;
+        int runs = (args.length > 1) ? Integer.parseInt(args[1]) : 5;
+        long[] codes = OpeningBook.enumerate(maxPly);
+        int count = codes.length;
+        long[] pieces = new long[count], others = new long[count];
+        for (int i = 0; i < count; i++) {
+            BitBoard position = OpeningBook.decode(codes[i]);
+            pieces[i] = position.getPieces(position.getToMove());
+            others[i] = position.getPieces(position.getLastMover());
+        }
+
+        int[] scores = new int[count];
+        long fastest = Long.MAX_VALUE;
+        for (int run = 0; run < runs; run++) {
+            long start = System.nanoTime();
+            evaluate(pieces, others, scores, count);
+            fastest = Math.min(fastest, System.nanoTime() - start);
+        }
+        System.out.printf("Scored %d positions in %.2f ms (%s the Vector API)%n", count, fastest / 1e6,
+                isVectorized() ? "with" : "without");
+
+        OpeningBook book = OpeningBook.load();
+        String[] names = {"Losses", "Draws", "Wins"};
+        long[] found = new long[3], total = new long[3], agreeing = new long[3];
+        for (int i = 0; i < count; i++) {
+            int outcome = book.getOutcome(codes[i]);
+            if (outcome == ColumnResult.UNKNOWN) { continue; }
+
+            int o = outcome - ColumnResult.LOSS;
+            found[o]++;
+            total[o] += scores[i];
+            if (Integer.signum(scores[i]) == outcome) {
+                agreeing[o]++;
+            }
+        }
+        for (int o = 0; o < 3; o++) {
+            if (found[o] == 0) { continue; }
+            System.out.printf("%s: %d positions, mean score %.1f, %.1f%% scored that way%n", names[o],
+                    found[o], (double) total[o] / found[o], 100.0 * agreeing[o] / found[o]);
+        }
+    }
+
+    /**
+     * Returns true if big batches are scored with the Vector API (see VectorBatchEvaluator).
+     */
+    public static boolean isVectorized() {
+        return VECTOR_EVALUATE != null;
+    }
+
+    /**
+     * Scores COUNT positions. Position i is the one in which the player to move has the pieces
+     * PIECES[i] and the other player has OTHERS[i]; its score (for the player to move) goes into
+     * SCORES[i]. (Like Evaluator, this doesn't look for wins or dead draws; see canAnyoneWin.)
+     */
+    public static void evaluate(long[] pieces, long[] others, int[] scores, int count) {
+        if (VECTOR_EVALUATE == null || count < VECTOR_MIN_BATCH) {
+            evaluate(pieces, others, scores, 0, count);
+            return;
+        }
+
+        try {
+            VECTOR_EVALUATE.invokeExact(pieces, others, scores, count);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new IllegalStateException(t); // it doesn't throw anything checked
+        }
+    }
+
+    /**
+     * Does what evaluate does, for the positions from FROM up to (but not including) TO,
+     * without the Vector API. (VectorBatchEvaluator uses this for what's left over after
+     * its last full vector.)
+     */
+    static void evaluate(long[] pieces, long[] others, int[] scores, int from, int to) {
+        for (int i = from; i < to; i++) {
+            scores[i] = 0;
+        }
+        for (int d = 0; d < STEPS.length; d++) {
+            int step = STEPS[d];
+            long starts = STARTS[d];
+            for (int i = from; i < to; i++) {
+                scores[i] += lineScore(pieces[i], others[i], step, starts)
+                        - lineScore(others[i], pieces[i], step, starts);
+            }
+        }
+    }
+
+    /**
+     * Returns the heuristic score for the player with the pieces PIECES, when the other player
+     * has the pieces OTHERS. This is the same as Evaluator's score for that player.
+     */
+    public static int score(long pieces, long others) {
+        int score = 0;
+        for (int d = 0; d < STEPS.length; d++) {
+            score += lineScore(pieces, others, STEPS[d], STARTS[d])
+                    - lineScore(others, pieces, STEPS[d], STARTS[d]);
+        }
+
+        return score;
+    }
+
+    /**
+     * Returns true if there's still a window with the pieces of at most one player in it
+     * (with RED and BLACK as the two players' pieces). If not, the game can only end in a draw.
+     */
+    public static boolean canAnyoneWin(long red, long black) {
+        for (int d = 0; d < STEPS.length; d++) {
+            if ((STARTS[d] & ~(spread(red, STEPS[d]) & spread(black, STEPS[d]))) != 0) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    /**
+     * Returns the windows in the direction STEP that have at least one piece from B in them,
+     * as a bitboard of their starting squares.
+     */
+    private static long spread(long b, int step) {
+        return b | (b >>> step) | (b >>> (2 * step)) | (b >>> (3 * step));
+    }
+
+    /**
+     * Returns what the windows in the direction STEP (starting on the squares STARTS)
+     * are worth to the player with the pieces PIECES, when the other player has OTHERS.
+     */
+    private static int lineScore(long pieces, long others, int step, long starts) {
+        long live = starts & ~spread(others, step);
+        long x1 = pieces >>> step, x2 = pieces >>> (2 * step), x3 = pieces >>> (3 * step);
+
+        // Add up the four squares of every window: ONES, TWOS and FOURS are the bits of the sum
+        long sum01 = pieces ^ x1, sum23 = x2 ^ x3;
+        long carry01 = pieces & x1, carry23 = x2 & x3;
+        long ones = sum01 ^ sum23;
+        long twos = carry01 ^ carry23 ^ (sum01 & sum23);
+        long fours = carry01 & carry23;
+
+        return Evaluator.WEIGHTS[1] * Long.bitCount(live & ones & ~twos)
+                + Evaluator.WEIGHTS[2] * Long.bitCount(live & twos & ~ones)
+                + Evaluator.WEIGHTS[3] * Long.bitCount(live & ones & twos)
+                + Evaluator.WEIGHTS[4] * Long.bitCount(live & fours);
+    }
+}
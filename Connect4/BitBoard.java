@@ -0,0 +1,483 @@
+package Connect4;
+
+import java.util.Random;
+
+/**
+ * A compact 7x6 board for the AI to search over.
+ * Each player's pieces are stored in a single long (one bit per square), and the height of
+ * every column is kept in a byte so that pieces can be dropped and lifted without any scanning.
+ *
+ * Squares are numbered column by column, starting from the bottom-left corner:
+ * bit (c * 7 + r) is row R of column C, where rows are counted UPWARD from the bottom.
+ * (This is the opposite of the Piece[][] boards, whose row 0 is the top row.)
+ * The seventh bit of every column is always empty, which stops the shifts in hasFour
+ * from wrapping around into the next column.
+ *
+ * Every board also carries a Zobrist hash of its position, which is updated as moves are
+ * played and undone, along with the hash of its mirror image (the same position flipped
+ * left to right). A position and its mirror image are worth the same, so anything that
+ * stores positions should look them up by getKey, which is the same for both.
+ * @author Owen Jow
+ */
+public class BitBoard {
+    static final int WIDTH = 7, HEIGHT = 6, H1 = HEIGHT + 1, SIZE = WIDTH * HEIGHT;
+    static final int RED = 0, BLACK = 1, EMPTY = -1; // player identifiers
+    static final long BOTTOM_ROW = bottomRow(), ALL_SQUARES = BOTTOM_ROW * ((1L << HEIGHT) - 1);
+    static final long LEFT_HALF = ALL_SQUARES & ((1L << ((WIDTH + 1) / 2 * H1)) - 1); // incl. center
+    private static final int[] LINE_SHIFTS = {H1, HEIGHT, H1 + 1}; // horizontal, and the diagonals
+
+    // Zobrist keys: one random number per (player, square), and one for whose turn it is.
+    // The seed is fixed so that a position hashes to the same value in every run.
+    // MIRROR_KEYS[p][s] is the key of the square that s turns into when the board is mirrored.
+    private static final long[][] PIECE_KEYS = new long[2][WIDTH * H1],
+            MIRROR_KEYS = new long[2][WIDTH * H1];
+    private static final long TO_MOVE_KEY;
+    static {
+        Random rand = new Random(0xC0441L);
+        for (long[] keys : PIECE_KEYS) {
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = rand.nextLong();
+            }
+        }
+        TO_MOVE_KEY = rand.nextLong();
+
+        for (int p = 0; p < 2; p++) {
+            for (int c = 0; c < WIDTH; c++) {
+                for (int r = 0; r < H1; r++) {
+                    MIRROR_KEYS[p][c * H1 + r] = PIECE_KEYS[p][(WIDTH - 1 - c) * H1 + r];
+                }
+            }
+        }
+    }
+
+    private long red, black; // a set bit means that the player has a piece on that square
+    private final byte[] heights = new byte[WIDTH]; // the number of pieces in each column
+    private int numMoves;
+    private int toMove; // the player who is next to play (RED or BLACK)
+    private long hash; // the Zobrist hash of the position
+    private long mirrorHash; // the Zobrist hash of the position's mirror image
+    private Evaluator evaluator; // kept up to date with every move, if there is one
+
+    /**
+     * Constructs an empty board with red to play.
+     */
+    public BitBoard() {
+        toMove = RED;
+    }
+
+    /**
+     * Constructs a copy of the board OTHER.
+     * The copy doesn't have an evaluator, even if OTHER does.
+     */
+    public BitBoard(BitBoard other) {
+        red = other.red;
+        black = other.black;
+        System.arraycopy(other.heights, 0, heights, 0, WIDTH);
+        numMoves = other.numMoves;
+        toMove = other.toMove;
+        hash = other.hash;
+        mirrorHash = other.mirrorHash;
+    }
+
+    /**
+     * Returns a bitboard with only the bottom square of every column set.
+     */
+    private static long bottomRow() {
+        long b = 0;
+        for (int c = 0; c < WIDTH; c++) {
+            b |= 1L << (c * H1);
+        }
+        return b;
+    }
+
+    /**
+     * Returns the player identifier that corresponds to the color COLOR.
+     * Anything that isn't red is taken to be black.
+     */
+    static int playerOf(String color) {
+        return "red".equals(color) ? RED : BLACK;
+    }
+
+    /**
+     * Returns the color that corresponds to the player identifier PLAYER.
+     */
+    static String colorOf(int player) {
+        return (player == RED) ? "red" : "black";
+    }
+
+    /**
+     * Returns the bit that represents row ROW (counting up from the bottom) of column COL.
+     */
+    static long bit(int row, int col) {
+        return 1L << (col * H1 + row);
+    }
+
+    /**
+     * Returns the pieces belonging to player PLAYER, as a bitboard.
+     */
+    public long getPieces(int player) {
+        return (player == RED) ? red : black;
+    }
+
+    /**
+     * Returns every piece on the board (both players'), as a bitboard.
+     */
+    public long getMask() {
+        return red | black;
+    }
+
+    /**
+     * Returns the bit for the square that a piece dropped into column COL would land on.
+     * Assumes that the column is not already full.
+     */
+    public long moveBit(int col) {
+        return 1L << (col * H1 + heights[col]);
+    }
+
+    /**
+     * Returns the square that a piece dropped into each non-full column would land on, as a bitboard.
+     * (Adding the bottom row to the mask carries a bit up to the first empty square of each column.)
+     */
+    public long possibleMoves() {
+        return possibleMoves(getMask());
+    }
+
+    /**
+     * Returns the squares that pieces could be dropped onto, given the occupied squares MASK.
+     */
+    static long possibleMoves(long mask) {
+        return (mask + BOTTOM_ROW) & ALL_SQUARES;
+    }
+
+    /**
+     * Returns the moves with which the player to move would win right away, as a bitboard.
+     */
+    public long winningMoves() {
+        return winningSquares(toMove) & possibleMoves();
+    }
+
+    /**
+     * Returns the moves that don't let the other player win on their very next move, as a bitboard.
+     * If the other player has a winning move already, we have to block it; if they have two,
+     * nothing can save us and this returns 0. We also never play directly underneath
+     * one of the other player's winning squares, since they would then just play on top.
+     * Assumes that the player to move can't win right away (otherwise they should just do that).
+     */
+    public long nonLosingMoves() {
+        return nonLosingMoves(possibleMoves(), winningSquares(toMove ^ 1));
+    }
+
+    /**
+     * Returns the moves out of POSSIBLE that don't lose on the spot to an opponent whose
+     * winning squares are THREATS (see the instance version).
+     */
+    static long nonLosingMoves(long possible, long threats) {
+        long forced = possible & threats;
+        if (forced != 0) {
+            if ((forced & (forced - 1)) != 0) {
+                return 0; // the other player has two winning moves; we can only block one
+            }
+            possible = forced;
+        }
+
+        return possible & ~(threats >>> 1);
+    }
+
+    /**
+     * Returns the squares of column COL, as a bitboard.
+     */
+    static long columnMask(int col) {
+        return ((1L << HEIGHT) - 1) << (col * H1);
+    }
+
+    /**
+     * Returns the column containing the (lowest) square in the bitboard B.
+     */
+    static int columnOf(long b) {
+        return Long.numberOfTrailingZeros(b) / H1;
+    }
+
+    /**
+     * Returns the Zobrist hash of the position (including whose turn it is).
+     */
+    public long getHash() {
+        return hash;
+    }
+
+    /**
+     * Returns a hash that is the same for this position and for its mirror image.
+     * (This is whichever of the two positions' hashes is smaller.)
+     */
+    public long getKey() {
+        return Math.min(hash, mirrorHash);
+    }
+
+    /**
+     * Returns true if getKey comes from the mirror image rather than from the position itself.
+     * Anything stored under getKey that refers to a column (like a best move) has to be flipped
+     * with canonicalMove when it goes in or comes out.
+     */
+    public boolean isMirrored() {
+        return mirrorHash < hash;
+    }
+
+    /**
+     * Converts the column COL between this position and the orientation getKey refers to.
+     * Flipping is its own inverse, so this works in both directions. NO_MOVE-style negative
+     * values are passed through untouched.
+     */
+    public int canonicalMove(int col) {
+        return (col >= 0 && isMirrored()) ? WIDTH - 1 - col : col;
+    }
+
+    /**
+     * Returns true if the position is its own mirror image (like the empty board).
+     */
+    public boolean isSymmetric() {
+        return hash == mirrorHash && mirror(red) == red && mirror(black) == black;
+    }
+
+    /**
+     * Returns MOVES (a bitboard of moves) without the ones that are mirror images of other moves,
+     * if this position is its own mirror image; there's no need to search both of a pair like that.
+     * Otherwise, returns MOVES as-is.
+     */
+    public long dropMirroredMoves(long moves) {
+        return isSymmetric() ? moves & LEFT_HALF : moves;
+    }
+
+    /**
+     * Returns a number that identifies this position exactly: every column's red pieces,
+     * with the bit just above its top piece set (so that the height can be recovered).
+     * Unlike getCanonicalCode, this is different for the position's mirror image.
+     */
+    public long getCode() {
+        return red + getMask() + BOTTOM_ROW;
+    }
+
+    /**
+     * Returns a number that identifies this position exactly, and is the same for its mirror image.
+     * Each column is encoded in 7 bits as its red pieces plus one bit just above the top piece
+     * (so that the height can be recovered); the top bit says whose turn it is.
+     */
+    public long getCanonicalCode() {
+        long code = getCode();
+        return Math.min(code, mirror(code)) | ((long) toMove << 63);
+    }
+
+    /**
+     * Returns the bitboard B flipped left to right.
+     */
+    static long mirror(long b) {
+        long m = 0;
+        for (int c = 0; c < WIDTH; c++) {
+            m |= ((b >>> (c * H1)) & ((1L << H1) - 1)) << ((WIDTH - 1 - c) * H1);
+        }
+        return m;
+    }
+
+    /**
+     * Gives this board an evaluator, which will be kept up to date as moves are played and undone.
+     * Returns the evaluator.
+     */
+    public Evaluator attachEvaluator() {
+        evaluator = new Evaluator(this);
+        return evaluator;
+    }
+
+    /**
+     * Returns this board's evaluator, or null if it doesn't have one.
+     */
+    public Evaluator getEvaluator() {
+        return evaluator;
+    }
+
+    /**
+     * Returns the player who is next to play.
+     */
+    public int getToMove() {
+        return toMove;
+    }
+
+    /**
+     * Returns the player who made the most recent move.
+     */
+    public int getLastMover() {
+        return toMove ^ 1;
+    }
+
+    /**
+     * Returns the number of pieces on the board.
+     */
+    public int getNumMoves() {
+        return numMoves;
+    }
+
+    /**
+     * Returns the number of pieces in column COL.
+     */
+    public int getHeight(int col) {
+        return heights[col];
+    }
+
+    /**
+     * Returns true if another piece can be dropped into column COL.
+     */
+    public boolean canPlay(int col) {
+        return heights[col] < HEIGHT;
+    }
+
+    /**
+     * Returns true if every square on the board is filled.
+     */
+    public boolean isFull() {
+        return numMoves >= SIZE;
+    }
+
+    /**
+     * Returns the owner of the square at row ROW (counting up from the bottom) of column COL,
+     * or EMPTY if nobody has played there yet.
+     */
+    public int cell(int row, int col) {
+        long b = bit(row, col);
+        if ((red & b) != 0) {
+            return RED;
+        } else if ((black & b) != 0) {
+            return BLACK;
+        }
+
+        return EMPTY;
+    }
+
+    /**
+     * Drops a piece for the player to move into column COL, then passes the turn.
+     * Assumes that the column is not already full.
+     */
+    public void play(int col) {
+        int square = col * H1 + heights[col]++;
+        long b = 1L << square;
+        if (toMove == RED) { red |= b; }
+        else { black |= b; }
+        hash ^= PIECE_KEYS[toMove][square] ^ TO_MOVE_KEY;
+        mirrorHash ^= MIRROR_KEYS[toMove][square] ^ TO_MOVE_KEY;
+        if (evaluator != null) { evaluator.add(toMove, square); }
+        numMoves++;
+        toMove ^= 1;
+    }
+
+    /**
+     * Takes back the top piece in column COL. This must be the most recent move
+     * that hasn't already been taken back; the turn is passed back to whoever played it.
+     */
+    public void undo(int col) {
+        toMove ^= 1;
+        numMoves--;
+        int square = col * H1 + --heights[col];
+        long b = ~(1L << square);
+        if (toMove == RED) { red &= b; }
+        else { black &= b; }
+        hash ^= PIECE_KEYS[toMove][square] ^ TO_MOVE_KEY;
+        mirrorHash ^= MIRROR_KEYS[toMove][square] ^ TO_MOVE_KEY;
+        if (evaluator != null) { evaluator.remove(toMove, square); }
+    }
+
+    /**
+     * Places a piece belonging to PLAYER at row ROW (counting up from the bottom) of column COL.
+     * Used for converting from other board representations; doesn't touch the turn
+     * (or the evaluator, so it should be called before one is attached).
+     * Assumes that every square below the new piece has already been filled.
+     */
+    void place(int player, int row, int col) {
+        if (player == RED) { red |= bit(row, col); }
+        else { black |= bit(row, col); }
+        heights[col] = (byte) (row + 1);
+        hash ^= PIECE_KEYS[player][col * H1 + row];
+        mirrorHash ^= MIRROR_KEYS[player][col * H1 + row];
+        numMoves++;
+    }
+
+    /**
+     * Sets the player who is next to play.
+     */
+    void setToMove(int player) {
+        if (player != toMove) {
+            hash ^= TO_MOVE_KEY;
+            mirrorHash ^= TO_MOVE_KEY;
+        }
+        toMove = player;
+    }
+
+    /**
+     * Returns true if player PLAYER has connected four anywhere on the board.
+     */
+    public boolean hasFour(int player) {
+        return hasFour(getPieces(player));
+    }
+
+    /**
+     * Returns true if the bitboard B contains four set bits in a row, in any direction.
+     * A shift of 1 is vertical, a shift of H1 is horizontal,
+     * and shifts of HEIGHT and H1 + 1 are the two diagonals.
+     */
+    static boolean hasFour(long b) {
+        long m = b & (b >>> H1); // horizontal
+        if ((m & (m >>> (2 * H1))) != 0) { return true; }
+
+        m = b & (b >>> HEIGHT); // diagonal, up to the left
+        if ((m & (m >>> (2 * HEIGHT))) != 0) { return true; }
+
+        m = b & (b >>> (H1 + 1)); // diagonal, up to the right
+        if ((m & (m >>> (2 * (H1 + 1)))) != 0) { return true; }
+
+        m = b & (b >>> 1); // vertical
+        return (m & (m >>> 2)) != 0;
+    }
+
+    /**
+     * Returns every empty square on which player PLAYER would complete a four,
+     * whether or not a piece could be dropped there right now.
+     */
+    public long winningSquares(int player) {
+        return winningSquares(getPieces(player), getMask());
+    }
+
+    /**
+     * Returns every square not in MASK that would complete a four with the pieces in PIECES.
+     * Each line is checked with a pair of shifts for the three pieces on either side of the gap.
+     */
+    static long winningSquares(long pieces, long mask) {
+        // Vertical (the gap can only be on top)
+        long r = (pieces << 1) & (pieces << 2) & (pieces << 3);
+
+        // Horizontal and both diagonals
+        for (int shift : LINE_SHIFTS) {
+            long p = (pieces << shift) & (pieces << (2 * shift));
+            r |= p & (pieces << (3 * shift));
+            r |= p & (pieces >>> shift);
+            p = (pieces >>> shift) & (pieces >>> (2 * shift));
+            r |= p & (pieces << shift);
+            r |= p & (pieces >>> (3 * shift));
+        }
+
+        return r & (ALL_SQUARES ^ mask);
+    }
+
+    /**
+     * String representation of this board, in the same format as ReguBoard's.
+     * Represents red pieces as "R", black pieces as "B", and empty spaces as "x".
+     */
+    @Override
+    public String toString() {
+        StringBuilder stringRepr = new StringBuilder();
+        for (int r = HEIGHT - 1; r >= 0; r--) {
+            stringRepr.append("[ ");
+            for (int c = 0; c < WIDTH; c++) {
+                int owner = cell(r, c);
+                stringRepr.append((owner == RED) ? "R " : (owner == BLACK) ? "B " : "x ");
+            }
+            stringRepr.append("]\n");
+        }
+
+        return stringRepr.toString();
+    }
+}
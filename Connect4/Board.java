@@ -14,6 +14,7 @@ abstract class Board {
             pieceStartHeight, maxNumPieces;
     
     protected Piece[][] board; // row x col (Y-AXIS x X-AXIS)
+    protected WindowTable windows; // the fours that can be made on a board of this size
     protected int numPieces;
     protected String currColor;
     protected boolean warfareMode;
@@ -100,15 +101,6 @@ abstract class Board {
         return piece != null && color.equals(piece.color);
     }
     
-    /**
-     * A helper function for choosing the greater of two integers.
-     * Given two integers, it will return whichever one is greater in value.
-     * If the integers are equal in value, it will return the first one.
-     */
-    protected static int chooseGreater(int a, int b) {
-        return (b > a) ? b : a;
-    }
-    
     /**
      * A helper function for choosing the lesser / "lower" of two integers.
      * Given two integers, it will return whichever one is smaller in value.
@@ -127,66 +119,23 @@ abstract class Board {
         return (board[0][column] != null);
     }
     
-    /**
-     * Takes a set of coordinates (r, c) and determines if it's contained by the board.
-     * @param r the row (i.e. the level on the board; think y-axis)
-     * @param c the column (think x-axis)
-     */
-    protected static boolean onBoard(int r, int c) {
-        return (r >= 0 && r < boardHeight) && (c >= 0 && c < boardWidth);
-    }
-    
     /**
      * Checks if piece PIECE makes a connected four with any other pieces on the board.
-     * Presumably, PIECE will be the piece that was most recently played.
+     * Presumably, PIECE will be the piece that was most recently played (and is already on the board).
+     * Only the windows (sets of four squares in a row) that contain the piece need to be looked at.
      * @param piece the piece to base checks around
      * @boolean true if there is a connected four on the board that involves the given piece
      */
     public boolean makesFour(Piece piece) {
-        int count1 = 0;
-        
-        // Check for vertical fours
-        int i = chooseGreater(piece.finalRow - 3, 0); // Initialize the vertical starting row
-        for (; i < chooseLesser(piece.finalRow + 4, boardHeight); i++) {
-            if (sameTeam(piece.color, board[i][piece.col])) {
-                count1++; // increment the vertical count
-            } else count1 = 0;
-            
-            // Return true if there's four in a row
-            if (count1 >= 4) return true;
-        }
-        
-        // Check for horizontal fours
-        i = chooseGreater(piece.col - 3, 0);  // Initialize the horizontal starting column
-        for (count1 = 0; i < chooseLesser(piece.col + 4, boardWidth); i++) {
-            if (sameTeam(piece.color, board[piece.finalRow][i])) {
-                count1++; // increment the horizontal count
-            } else count1 = 0;
-            
-            if (count1 >= 4) return true;
-        }
-        
-        // Check for diagonal fours
-        int count2 = 0; // initializing an extra count variable
-        for (i = -4, count1 = 0; i < 4; i++) {
-            if (i == 0) { // this is the piece itself, so we know it's the same color
-                count1++;
-                count2++;
-            } else {
-                // Heading from the top-left to the bottom-right
-                if (onBoard(piece.finalRow + i, piece.col + i)) {
-                    if (sameTeam(piece.color, board[piece.finalRow + i][piece.col + i])) count1++;
-                    else count1 = 0;
-                }
-            
-                // Heading from the bottom-left to the top-right
-                if (onBoard(piece.finalRow + i, piece.col - i)) {
-                    if (sameTeam(piece.color, board[piece.finalRow + i][piece.col - i])) count2++;
-                    else count2 = 0;
-                }
+        for (int w : windows.squareWindows[windows.square(piece.finalRow, piece.col)]) {
+            int count = 0;
+            for (int s : windows.windows[w]) {
+                if (!sameTeam(piece.color, board[s / windows.width][s % windows.width])) { break; }
+                count++;
             }
             
-            if (count1 >= 4 || count2 >= 4) return true;
+            // Return true if the whole window belongs to the piece's team
+            if (count == 4) return true;
         }
         
         return false;
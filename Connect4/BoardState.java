@@ -0,0 +1,136 @@
+package Connect4;
+
+import java.util.SplittableRandom;
+
+/**
+ * Regular Connect Four or Removal as a GameState, played on the board that the game itself uses
+ * (a ReguBoard or a RemovalBoard) rather than on bitboards. Each move is made the way the panels
+ * make it, and the falling pieces are animated frame by frame until the board settles, so it's
+ * the board's own rules (its makesFour, endTurn and removePiece) that decide what happens.
+ * That makes it slow, but it's what lets Perft check the board classes against ReguState and
+ * RemovalState.
+ *
+ * Moves are numbered as in RemovalState: a column (0 to 6), or BitBoard.WIDTH plus the
+ * bitboard square of the piece to remove (only on a RemovalBoard).
+ * @author Owen Jow
+ */
+class BoardState implements GameState {
+    private final ReguBoard board;
+    private final boolean removal;
+
+    /**
+     * Constructs the starting position of regular Connect Four, or of Removal if REMOVAL is true.
+     */
+    BoardState(boolean removal) {
+        this(removal ? new RemovalBoard() : new ReguBoard(), removal);
+    }
+
+    private BoardState(ReguBoard board, boolean removal) {
+        this.board = board;
+        this.removal = removal;
+    }
+
+    @Override
+    public int getNumPlayers() {
+        return 2;
+    }
+
+    @Override
+    public int getToMove() {
+        return BitBoard.playerOf(board.getCurrPlayer());
+    }
+
+    @Override
+    public int getMoves(int[] moves) {
+        int n = 0;
+        for (int c : AI.SELECTION_ORDER) {
+            if (!board.isColumnFull(c)) { moves[n++] = c; }
+        }
+        if (removal) {
+            Piece[][] pieces = board.getBoard();
+            for (int c = 0; c < BitBoard.WIDTH; c++) {
+                for (int row = BitBoard.HEIGHT - 1; row >= 0 && pieces[row][c] != null; row--) {
+                    if (pieces[row][c].color.equals(board.getCurrPlayer())) {
+                        moves[n++] = BitBoard.WIDTH + c * BitBoard.H1 + BitBoard.HEIGHT - 1 - row;
+                    }
+                }
+            }
+        }
+        return n;
+    }
+
+    @Override
+    public int getMaxMoves() {
+        return removal ? BitBoard.WIDTH + BitBoard.SIZE : BitBoard.WIDTH;
+    }
+
+    @Override
+    public void play(int move) {
+        if (move < BitBoard.WIDTH) {
+            board.addToColumn(board.interactivePiece, move);
+        } else {
+            int square = move - BitBoard.WIDTH; // a bitboard square, whose rows count up from the bottom
+            board.removePiece(BitBoard.HEIGHT - 1 - square % BitBoard.H1, square / BitBoard.H1);
+        }
+        while (board.isPieceFalling || board.isColumnFalling()) {
+            board.animateFallingPiece();
+        }
+    }
+
+    @Override
+    public boolean isOver() {
+        return board.gameOver;
+    }
+
+    /**
+     * Returns the player with a four, if the game is over. (If both have one, which can happen in
+     * Removal, the turn didn't pass, so the winner is the player whose turn it still is.)
+     */
+    @Override
+    public int getWinner() {
+        if (!board.gameOver) { return NOBODY; }
+        BitBoard position = board.toBitBoard();
+        int mover = position.getToMove();
+        if (BitBoard.hasFour(position.getPieces(mover))) {
+            return mover;
+        }
+        return BitBoard.hasFour(position.getPieces(1 - mover)) ? 1 - mover : NOBODY;
+    }
+
+    /**
+     * Picks any legal move at random (this is only meant for counting, not for playouts).
+     */
+    @Override
+    public int randomMove(SplittableRandom random) {
+        int[] moves = new int[getMaxMoves()];
+        return moves[random.nextInt(getMoves(moves))];
+    }
+
+    @Override
+    public long getHash() {
+        return board.toBitBoard().getHash();
+    }
+
+    /**
+     * Returns a copy of the position on a new board, with copies of all of the pieces
+     * (which the board moves around as they fall).
+     */
+    @Override
+    public GameState copy() {
+        Piece[][] pieces = board.getBoard(), copies = new Piece[BitBoard.HEIGHT][BitBoard.WIDTH];
+        for (int row = 0; row < BitBoard.HEIGHT; row++) {
+            for (int c = 0; c < BitBoard.WIDTH; c++) {
+                Piece p = pieces[row][c];
+                if (p != null) {
+                    copies[row][c] = new Piece(p.color, p.col, p.finalRow);
+                    copies[row][c].setXY(p.getX(), p.getY());
+                }
+            }
+        }
+
+        ReguBoard copy = removal ? new RemovalBoard(copies, board.getNumPieces(), board.getCurrPlayer())
+                : new ReguBoard(copies, board.getNumPieces(), board.getCurrPlayer());
+        copy.gameOver = board.gameOver;
+        return new BoardState(copy, removal);
+    }
+}
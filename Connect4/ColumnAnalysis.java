@@ -0,0 +1,46 @@
+package Connect4;
+
+/**
+ * Everything that AI.analyze found out about playing in one particular column: the search's
+ * score for it, the line of play the search expects to follow it (the "principal variation"),
+ * and, if it's been proven, its outcome.
+ * @author Owen Jow
+ */
+public class ColumnAnalysis {
+    public final int column;
+    public final ColumnResult result; // the proven outcome (UNKNOWN if it hasn't been proven)
+    public final int score; // the search's score, for the player who plays in the column
+    public final int depth; // the number of plies the score looks ahead (counting this move)
+    public final int[] pv; // the expected line of play, starting with this column
+
+    ColumnAnalysis(ColumnResult result, int score, int depth, int[] pv) {
+        this.column = result.column;
+        this.result = result;
+        this.score = score;
+        this.depth = depth;
+        this.pv = pv;
+    }
+
+    /**
+     * Returns true if the column's outcome has been proven (so the score is more than a guess).
+     */
+    public boolean isProven() {
+        return result.outcome != ColumnResult.UNKNOWN;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        if (isProven()) {
+            sb.append(result);
+        } else {
+            sb.append("column ").append(column).append(": ").append(score)
+                    .append(" at depth ").append(depth);
+        }
+        sb.append(" [");
+        for (int i = 0; i < pv.length; i++) {
+            sb.append((i == 0) ? "" : " ").append(pv[i]);
+        }
+        return sb.append("]").toString();
+    }
+}
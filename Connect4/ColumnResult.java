@@ -0,0 +1,63 @@
+package Connect4;
+
+/**
+ * What the AI knows about playing in one particular column: whether it wins, draws or loses
+ * (with perfect play from then on), and how many plies it takes to get there.
+ * @author Owen Jow
+ */
+public class ColumnResult {
+    // Outcomes, for the player who plays in the column
+    public static final int LOSS = -1, DRAW = 0, WIN = 1, UNKNOWN = 2;
+
+    public final int column;
+    public final int outcome;
+    public final int plies; // plies until the game is decided (counting this move), or -1 if unknown
+
+    ColumnResult(int column, int outcome, int plies) {
+        this.column = column;
+        this.outcome = outcome;
+        this.plies = plies;
+    }
+
+    /**
+     * Returns the result for playing in column COLUMN, given the exact SCORE of that move
+     * (for the player making it, as the AI scores it) in a position where NUM_MOVES moves
+     * have been played. A draw is decided when the board fills up.
+     */
+    static ColumnResult fromScore(int column, int score, int numMoves) {
+        if (score == 0) {
+            return new ColumnResult(column, DRAW, BitBoard.SIZE - numMoves);
+        }
+
+        // A win on move k is worth INFINITY + (SIZE - k) * 5 (see AI.winScore)
+        int finalMove = BitBoard.SIZE - (Math.abs(score) - AI.INFINITY) / 5;
+        return new ColumnResult(column, (score > 0) ? WIN : LOSS, finalMove - numMoves);
+    }
+
+    /**
+     * Returns the score of this result as the AI would give it, in a position where NUM_MOVES
+     * moves have been played: the inverse of fromScore. A win or loss whose plies are unknown
+     * is scored INFINITY (or -INFINITY), as the search scores wins that it can't place yet.
+     */
+    int toScore(int numMoves) {
+        if (outcome == DRAW || outcome == UNKNOWN) {
+            return 0;
+        }
+        int score = (plies < 0) ? AI.INFINITY : AI.winScore(numMoves + plies);
+        return (outcome == WIN) ? score : -score;
+    }
+
+    /**
+     * Returns a result for column COLUMN that says nothing is known about it.
+     */
+    static ColumnResult unknown(int column) {
+        return new ColumnResult(column, UNKNOWN, -1);
+    }
+
+    @Override
+    public String toString() {
+        String[] names = {"loss", "draw", "win", "unknown"};
+        return "column " + column + ": " + names[outcome + 1]
+                + ((plies >= 0) ? " in " + plies + " plies" : "");
+    }
+}
@@ -0,0 +1,92 @@
+package Connect4;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+
+/**
+ * How well the computer plays against the user (see VsComputerPanel). A level is a budget of
+ * positions that the computer may look at on each move, and a ceiling on how long it may take.
+ *
+ * A fixed search depth doesn't make for a steady opponent: the same depth can take a thousand
+ * positions in one game and a million in the next, and how long those take depends on the
+ * computer. A node budget plays about as well everywhere (see AI.getBudgetedMove), and the ceiling
+ * is kept however slow or busy the computer is. For that, each level keeps track of how fast
+ * its searches have been going (as if they'd had a processor to themselves, going by the load
+ * average at the time), and if the budget won't fit under the ceiling at the speed the current load
+ * allows, it's cut down to what will. Each level also keeps back some of its time (a little,
+ * or the most that its recent moves have gone over), so that even the moves that run out of time finish
+ * under the ceiling.
+ * @author Owen Jow
+ */
+class Difficulty {
+    static final Difficulty EASY = new Difficulty(5000, 500, false);
+    static final Difficulty NORMAL = new Difficulty(AI.NO_NODE_LIMIT, 3000, false);
+    static final Difficulty HARD = new Difficulty(AI.NO_NODE_LIMIT, 3000, true);
+    static final long MIN_TIME_LIMIT = 10; // the least time (in ms) a search is ever given
+    private static final double SPEED_WEIGHT = 0.25; // how much the latest move counts toward the speed
+    private static final int MIN_RESERVE = 50; // at least 1/MIN_RESERVE of the ceiling is kept back
+    private static final long MIN_MEASURED_NODES = 1024; // moves with fewer nodes than this aren't timed
+    private static final OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+
+    private final long nodeBudget; // positions per move (or AI.NO_NODE_LIMIT)
+    private final long ceiling; // the most time (in ms) a move may take
+    private final boolean perfectPlay; // if true, positions are solved instead of searched
+    private double nodesPerMs; // the speed of a search with a processor to itself (0 until measured)
+    private long reserve; // time (in ms) kept back from the ceiling
+
+    /**
+     * Constructs a level that looks at NODE_BUDGET positions per move (or any number, given
+     * AI.NO_NODE_LIMIT) and takes at most CEILING milliseconds. If PERFECT_PLAY is true,
+     * positions are solved when possible (see AI.getPerfectMove), and searched when not.
+     */
+    Difficulty(long nodeBudget, long ceiling, boolean perfectPlay) {
+        this.nodeBudget = nodeBudget;
+        this.ceiling = ceiling;
+        this.perfectPlay = perfectPlay;
+        reserve = ceiling / MIN_RESERVE;
+    }
+
+    /**
+     * Returns the computer's move on BOARD at this level. Levels without a node budget search
+     * with THREADS threads; the others search with one, so that their node counts mean the same
+     * thing every time.
+     */
+    int getMove(ReguBoard board, int threads) {
+        long start = System.nanoTime();
+        long timeLimit = Math.max(MIN_TIME_LIMIT, ceiling - reserve);
+        double share = processorShare();
+        int move;
+        if (perfectPlay) {
+            move = AI.getPerfectMove(board, timeLimit);
+        } else if (nodeBudget == AI.NO_NODE_LIMIT) {
+            move = AI.getBestComputerMove(board, BitBoard.SIZE, timeLimit, threads);
+        } else {
+            long nodes = nodeBudget;
+            if (nodesPerMs > 0) {
+                nodes = Math.min(nodes, Math.max(MIN_MEASURED_NODES, (long) (nodesPerMs * share * timeLimit)));
+            }
+            move = AI.getBudgetedMove(board, nodes, timeLimit);
+
+            long elapsed = System.nanoTime() - start;
+            if (AI.getNodesSearched() >= MIN_MEASURED_NODES && elapsed > 0) {
+                double speed = AI.getNodesSearched() * 1e6 / elapsed / share;
+                nodesPerMs = (nodesPerMs == 0) ? speed : nodesPerMs + SPEED_WEIGHT * (speed - nodesPerMs);
+            }
+        }
+
+        long overshoot = (System.nanoTime() - start) / 1000000L - timeLimit;
+        reserve = Math.min(ceiling / 2, Math.max(ceiling / MIN_RESERVE, Math.max(overshoot, reserve - reserve / 4)));
+        return move;
+    }
+
+    /**
+     * Returns the share of a processor that one more busy thread can expect right now, going by
+     * the load average (which counts this program's own thread too, roughly, if it's been busy).
+     * Returns 1 if the load average isn't available.
+     */
+    private static double processorShare() {
+        double load = os.getSystemLoadAverage();
+        int processors = os.getAvailableProcessors();
+        return (load < 0) ? 1 : Math.min(1, processors / (load + 1));
+    }
+}
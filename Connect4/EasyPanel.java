@@ -8,11 +8,13 @@ package Connect4;
 public class EasyPanel extends VsComputerPanel {
     /**
      * Constructs an "easy" panel. 
-     * Every time, the computer will look six turns into the future.
+     * Every time, the computer will look at a few thousand positions (see Difficulty.EASY),
+     * which is about as far as six turns into the future, and answer within half a second.
      */
     public EasyPanel() {
         /* Implicit call to super() */
         bgId = 5;
-        maxDepth = 6;
+        difficulty = Difficulty.EASY;
+        moveTimeLimit = 500; // for MonteCarlo, which doesn't go by the difficulty
     }
 }
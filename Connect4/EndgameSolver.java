@@ -0,0 +1,372 @@
+package Connect4;
+
+import java.io.IOException;
+
+/**
+ * An exact solver for positions near the end of the game, where it's cheap enough to search
+ * every line all the way to the end. There's no heuristic here: a position is worth a win
+ * (sooner is better), a loss (later is better) or a draw, scored the same way as the AI
+ * scores them (see AI.winScore), and whatever it returns is the real game-theoretic value.
+ *
+ * Positions are just a pair of longs (the pieces of the player to move, and the occupied
+ * squares), passed down the recursion as arguments, so playing a move is an OR and undoing it
+ * is free; nothing is allocated during a search. Moves are ordered by the table's best move,
+ * then by how many winning squares they leave the player who made them, then by centrality.
+ * The static solver's rules and the fact that nobody can win before a certain move
+ * are both used to narrow the window before searching.
+ * @author Owen Jow
+ */
+public class EndgameSolver {
+    private static final int CLOCK_CHECK_INTERVAL = 1024; // nodes between looks at the clock
+    private static final int STATIC_SOLVER_MIN_EMPTY = 8; // the rules aren't worth trying below this
+    private static final long KEY_MULTIPLIER = 0x9E3779B97F4A7C15L; // spreads keys over the table
+
+    private final HeapTable table;
+    private final int[][] moveLists = new int[BitBoard.SIZE + 1][BitBoard.WIDTH];
+    private final int[][] moveKeys = new int[BitBoard.SIZE + 1][BitBoard.WIDTH];
+    private long deadline; // in System.nanoTime() terms
+    private boolean timeUp;
+    private long nodesSearched;
+    private OpeningBook book; // outcomes that are already known (or null)
+    private SolveCheckpoint checkpoint; // null unless the solve is being checkpointed
+    private long earlierNodes; // positions visited by earlier runs of a resumed solve
+    private int bestMove, score; // the results of the last solve
+
+    /**
+     * Constructs a solver with a transposition table of 2^TABLE_BITS entries.
+     */
+    public EndgameSolver(int tableBits) {
+        table = new HeapTable(tableBits);
+    }
+
+    /**
+     * Forgets every position that has been solved so far.
+     */
+    public void clear() {
+        table.clear();
+    }
+
+    /**
+     * Has every solve from now on take the outcomes of the positions in BOOK as given
+     * (or stops, given null). They only bound the scores, since the book doesn't say how long
+     * a win takes, but that's enough to cut off everything below them.
+     */
+    public void setBook(OpeningBook book) {
+        this.book = book;
+    }
+
+    /**
+     * Has every solve from now on save its progress to CHECKPOINT (or stops saving it, given null),
+     * and pick up from whatever it already holds if it's for the same position.
+     */
+    public void setCheckpoint(SolveCheckpoint checkpoint) {
+        this.checkpoint = checkpoint;
+    }
+
+    /**
+     * Solves POSITION (in which nobody has won yet), giving up at the System.nanoTime() value
+     * DEADLINE. Returns true if it finished, in which case getBestMove and getScore give the best
+     * move and its exact score (for the player to move).
+     */
+    public boolean solve(BitBoard position, long deadline) {
+        return solve(position, deadline, false);
+    }
+
+    /**
+     * Like solve, but only works out whether POSITION is a win, a draw or a loss (which is
+     * a lot quicker than finding out how long it takes). Afterward, getScore is 1, 0 or -1, and
+     * getBestMove is a move that keeps the result (though not necessarily the quickest win).
+     */
+    public boolean solveOutcome(BitBoard position, long deadline) {
+        return solve(position, deadline, true);
+    }
+
+    /**
+     * Solves POSITION, just for its outcome if WEAK is true (see solveOutcome).
+     */
+    private boolean solve(BitBoard position, long deadline, boolean weak) {
+        this.deadline = deadline;
+        timeUp = false;
+        nodesSearched = 0;
+        table.nextGeneration();
+
+        long pieces = position.getPieces(position.getToMove()), mask = position.getMask();
+        int numMoves = position.getNumMoves();
+        long possible = BitBoard.possibleMoves(mask);
+        long wins = BitBoard.winningSquares(pieces, mask) & possible;
+        if (wins != 0) {
+            bestMove = BitBoard.columnOf(wins & -wins);
+            score = weak ? 1 : AI.winScore(numMoves + 1);
+            return true;
+        }
+        long allowed = BitBoard.nonLosingMoves(possible, BitBoard.winningSquares(pieces ^ mask, mask));
+        if (allowed == 0) {
+            allowed = possible; // we've lost, but we'll still put up a fight
+        }
+
+        // Close in on the score with zero-width searches, each of which only asks whether
+        // the score is above some value. Checking against a draw first settles the outcome quickly.
+        // (If we only want the outcome, we stop as soon as we know which side of a draw it's on.)
+        int min = -AI.winScore(numMoves + 2), max = AI.winScore(numMoves + 3);
+        if (weak) {
+            min = -1;
+            max = 1;
+        }
+        bestMove = TranspositionTable.NO_MOVE;
+        earlierNodes = 0;
+        if (checkpoint != null) {
+            try {
+                if (checkpoint.resume(position, weak, table)) {
+                    min = checkpoint.getMin();
+                    max = checkpoint.getMax();
+                    bestMove = checkpoint.getBestMove();
+                    earlierNodes = checkpoint.getNodes();
+                } else {
+                    checkpoint.start(position, weak, table, min, max);
+                }
+            } catch (IOException e) {
+                checkpointFailed(e);
+            }
+        }
+        while (min < max) {
+            int med = min + (max - min) / 2;
+            if (med <= 0 && min / 2 < med) {
+                med = min / 2;
+            } else if (med >= 0 && max / 2 > med) {
+                med = max / 2;
+            }
+            int s = searchRoot(pieces, mask, numMoves, allowed, med);
+            if (timeUp) { return false; }
+            if (s <= med) {
+                max = s;
+            } else {
+                min = s;
+            }
+            if (checkpoint != null) {
+                try {
+                    checkpoint.update(min, max, bestMove, earlierNodes + nodesSearched);
+                } catch (IOException e) {
+                    checkpointFailed(e);
+                }
+            }
+        }
+
+        if (bestMove == TranspositionTable.NO_MOVE) {
+            bestMove = moveLists[numMoves][0]; // every move loses as fast as it can
+        }
+        score = weak ? Integer.signum(max) : min;
+        if (checkpoint != null) {
+            try {
+                checkpoint.finish(min, bestMove, earlierNodes + nodesSearched);
+            } catch (IOException e) {
+                checkpointFailed(e);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reports that the checkpoint couldn't be written (because of E), and carries on without it.
+     */
+    private void checkpointFailed(IOException e) {
+        System.err.println("Couldn't save the checkpoint to " + checkpoint.getFile() + ": " + e);
+        checkpoint = null;
+    }
+
+    /**
+     * Returns the score of the root position (with PIECES, MASK and NUM_MOVES as in negamax,
+     * and the moves ALLOWED), within a zero-width window at GUESS: if the result is above GUESS,
+     * it's a lower bound on the score, and the move that got it is saved in bestMove.
+     * Otherwise it's an upper bound.
+     */
+    private int searchRoot(long pieces, long mask, int numMoves, long allowed, int guess) {
+        long possible = BitBoard.possibleMoves(mask);
+        int[] moves = moveLists[numMoves];
+        int n = orderMoves(pieces, mask, numMoves, allowed, bestMove);
+        int best = -AI.MAX_SCORE;
+        for (int i = 0; i < n; i++) {
+            long b = possible & BitBoard.columnMask(moves[i]);
+            int s = -negamax(pieces ^ mask, mask | b, numMoves + 1, -(guess + 1), -guess);
+            if (s > best) {
+                best = s;
+                if (s > guess) {
+                    bestMove = moves[i];
+                    break;
+                }
+            }
+        }
+
+        return best;
+    }
+
+    /**
+     * Returns the best move found by the last successful call to solve.
+     */
+    public int getBestMove() {
+        return bestMove;
+    }
+
+    /**
+     * Returns the exact score of the position passed to the last successful call to solve.
+     */
+    public int getScore() {
+        return score;
+    }
+
+    /**
+     * Returns the number of positions visited by the last call to solve.
+     */
+    public long getNodesSearched() {
+        return nodesSearched;
+    }
+
+    /**
+     * Returns the score of the position in which the player to move has the pieces PIECES,
+     * MASK is the set of occupied squares, and NUM_MOVES moves have been played.
+     * The score is fail-soft within (ALPHA, BETA), as in AI.negamax.
+     */
+    private int negamax(long pieces, long mask, int numMoves, int alpha, int beta) {
+        if (++nodesSearched % CLOCK_CHECK_INTERVAL == 0) {
+            long now = System.nanoTime();
+            if (now > deadline) {
+                timeUp = true;
+            } else if (checkpoint != null && checkpoint.isDue(now)) {
+                try {
+                    checkpoint.writeChunk(earlierNodes + nodesSearched);
+                } catch (IOException e) {
+                    checkpointFailed(e);
+                }
+            }
+        }
+        if (timeUp) { return 0; } // the result will be thrown away anyway
+
+        long possible = BitBoard.possibleMoves(mask);
+        if ((BitBoard.winningSquares(pieces, mask) & possible) != 0) {
+            return AI.winScore(numMoves + 1);
+        }
+        long allowed = BitBoard.nonLosingMoves(possible, BitBoard.winningSquares(pieces ^ mask, mask));
+        if (allowed == 0) {
+            return -AI.winScore(numMoves + 2);
+        } else if (numMoves >= BitBoard.SIZE - 2) {
+            return 0; // the board fills up before anybody can connect four
+        }
+
+        // We can't win before our next move, and we can't lose before the other player's next move
+        int max = AI.winScore(numMoves + 3);
+        int min = (numMoves + 4 <= BitBoard.SIZE) ? -AI.winScore(numMoves + 4) : 0;
+        if (beta > max) {
+            beta = max;
+            if (alpha >= beta) { return beta; }
+        }
+        if (alpha < min) {
+            alpha = min;
+            if (alpha >= beta) { return alpha; }
+        }
+
+        // See if we've already solved this position (or its mirror image)
+        long code = pieces + mask + BitBoard.BOTTOM_ROW;
+        long mirrored = BitBoard.mirror(code);
+        boolean flip = mirrored < code;
+        long key = Math.min(code, mirrored) * KEY_MULTIPLIER;
+        long entry = table.probe(key);
+        int ttMove = TranspositionTable.NO_MOVE;
+        if (entry != 0) {
+            ttMove = flipMove(TranspositionTable.getMove(entry), flip);
+            int s = TranspositionTable.getScore(entry);
+            switch (TranspositionTable.getBound(entry)) {
+                case TranspositionTable.EXACT:
+                    return s;
+                case TranspositionTable.LOWER:
+                    alpha = Math.max(alpha, s);
+                    break;
+                default:
+                    beta = Math.min(beta, s);
+            }
+            if (alpha >= beta) { return s; }
+        }
+
+        // So can the book, if it knows the outcome
+        if (book != null && numMoves <= book.getMaxPly()) {
+            int outcome = book.getOutcome(Math.min(code, mirrored));
+            if (outcome == ColumnResult.DRAW) {
+                return 0;
+            } else if (outcome == ColumnResult.WIN && alpha < AI.INFINITY) {
+                alpha = AI.INFINITY; // a win, on the last move at the latest
+                if (alpha >= beta) { return alpha; }
+            } else if (outcome == ColumnResult.LOSS && beta > -AI.INFINITY) {
+                beta = -AI.INFINITY;
+                if (alpha >= beta) { return beta; }
+            }
+        }
+
+        // The strategy rules can cap the score too
+        if (BitBoard.SIZE - numMoves >= STATIC_SOLVER_MIN_EMPTY) {
+            int result = StaticSolver.solve(pieces, mask);
+            int cap = (result == StaticSolver.LOSS) ? -AI.INFINITY
+                    : (result == StaticSolver.NO_WIN) ? 0 : beta;
+            if (cap < beta) {
+                beta = cap;
+                if (alpha >= beta) { return beta; }
+            }
+        }
+
+        int alphaOrig = alpha;
+        int best = -AI.MAX_SCORE;
+        int bestMove = TranspositionTable.NO_MOVE;
+        int[] moves = moveLists[numMoves];
+        int n = orderMoves(pieces, mask, numMoves, allowed, ttMove);
+        for (int i = 0; i < n; i++) {
+            long b = possible & BitBoard.columnMask(moves[i]);
+            int s = -negamax(pieces ^ mask, mask | b, numMoves + 1, -beta, -alpha);
+            if (s > best) {
+                best = s;
+                if (s > alpha) {
+                    alpha = s;
+                    bestMove = moves[i];
+                }
+            }
+            if (alpha >= beta) { break; }
+        }
+
+        if (!timeUp) {
+            int bound = (best <= alphaOrig) ? TranspositionTable.UPPER
+                    : (best >= beta) ? TranspositionTable.LOWER : TranspositionTable.EXACT;
+            table.store(key, best, BitBoard.SIZE - numMoves, bound, flipMove(bestMove, flip));
+        }
+        return best;
+    }
+
+    /**
+     * Returns the mirror image of the move COL if FLIP is true, and COL itself otherwise.
+     */
+    private static int flipMove(int col, boolean flip) {
+        return (flip && col >= 0) ? BitBoard.WIDTH - 1 - col : col;
+    }
+
+    /**
+     * Fills moveLists[NUM_MOVES] with the columns whose next square is in ALLOWED, best-looking
+     * first, and returns how many there are. TT_MOVE goes first; the rest are sorted by how many
+     * winning squares they'd leave the player to move (who has PIECES, with MASK occupied).
+     * Ties go to the more central column.
+     */
+    private int orderMoves(long pieces, long mask, int numMoves, long allowed, int ttMove) {
+        int[] moves = moveLists[numMoves], keys = moveKeys[numMoves];
+        int n = 0;
+        for (int c : AI.SELECTION_ORDER) {
+            long b = allowed & BitBoard.columnMask(c);
+            if (b == 0) { continue; }
+
+            int key = (c == ttMove) ? Integer.MAX_VALUE
+                    : Long.bitCount(BitBoard.winningSquares(pieces | b, mask | b));
+            int j = n++;
+            for (; j > 0 && keys[j - 1] < key; j--) {
+                keys[j] = keys[j - 1];
+                moves[j] = moves[j - 1];
+            }
+            keys[j] = key;
+            moves[j] = c;
+        }
+
+        return n;
+    }
+}
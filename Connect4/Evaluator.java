@@ -0,0 +1,146 @@
+package Connect4;
+
+/**
+ * Heuristic scoring for the AI, kept up to date one move at a time.
+ *
+ * A "window" is any four squares in a row (there are 69 on a 7x6 board). A window that only
+ * one player has pieces in is still live for that player, and is worth 5, 25 or 125 points
+ * to them for one, two or three pieces. A window that both players have pieces in is dead:
+ * nobody can connect four there anymore, so it's worth nothing.
+ *
+ * The evaluator keeps a code for the contents of every window (red's piece count plus 8 times
+ * black's), and everything else is looked up by that code in tables built ahead of time.
+ * Once it's attached to a BitBoard, every move played or undone on that board updates only the
+ * windows through that square, so a position's score is just a running total. It also knows how
+ * many windows are still live for each player; once there are none for either, the game is a
+ * certain draw.
+ * @author Owen Jow
+ */
+public class Evaluator {
+    static final int[] WEIGHTS = {0, 5, 25, 125, 625}; // a live window's worth, by number of pieces
+    private static final int[] CODE_STEP = {1, 8}; // how much a piece changes a window's code, by player
+
+    // The window geometry, with squares renumbered as bitboard indices:
+    // SQUARE_WINDOWS[s] holds the windows that bitboard square s belongs to.
+    private static final WindowTable GEOMETRY = WindowTable.forSize(BitBoard.WIDTH, BitBoard.HEIGHT);
+    static final int NUM_WINDOWS = GEOMETRY.numWindows();
+    private static final int[][] SQUARE_WINDOWS = new int[BitBoard.WIDTH * BitBoard.H1][0];
+
+    // Lookup tables, indexed by window code: red's score minus black's, and whether the window
+    // is still live for each player (1 or 0).
+    private static final int[] CODE_SCORES = new int[64];
+    private static final int[][] CODE_LIVE = new int[2][64];
+    static {
+        for (int c = 0; c < BitBoard.WIDTH; c++) {
+            for (int r = 0; r < BitBoard.HEIGHT; r++) {
+                SQUARE_WINDOWS[c * BitBoard.H1 + r] =
+                        GEOMETRY.squareWindows[GEOMETRY.square(BitBoard.HEIGHT - 1 - r, c)];
+            }
+        }
+
+        for (int red = 0; red <= 4; red++) {
+            for (int black = 0; red + black <= 4; black++) {
+                int code = red * CODE_STEP[BitBoard.RED] + black * CODE_STEP[BitBoard.BLACK];
+                CODE_LIVE[BitBoard.RED][code] = (black == 0) ? 1 : 0;
+                CODE_LIVE[BitBoard.BLACK][code] = (red == 0) ? 1 : 0;
+                CODE_SCORES[code] = CODE_LIVE[BitBoard.RED][code] * WEIGHTS[red]
+                        - CODE_LIVE[BitBoard.BLACK][code] * WEIGHTS[black];
+            }
+        }
+    }
+
+    private final byte[] codes = new byte[NUM_WINDOWS]; // the contents of each window
+    private int score; // red's score minus black's
+    private final int[] liveWindows = {NUM_WINDOWS, NUM_WINDOWS}; // windows that have none of the
+                                                                   // other player's pieces
+
+    /**
+     * Constructs an evaluator for the pieces that are already on the board POSITION.
+     * (To keep it up to date after that, it has to be attached to the board.)
+     */
+    public Evaluator(BitBoard position) {
+        for (int c = 0; c < BitBoard.WIDTH; c++) {
+            for (int r = 0; r < position.getHeight(c); r++) {
+                add(position.cell(r, c), c * BitBoard.H1 + r);
+            }
+        }
+    }
+
+    /**
+     * Accounts for a piece belonging to PLAYER being placed on (bitboard) square SQUARE.
+     */
+    void add(int player, int square) {
+        int step = CODE_STEP[player];
+        for (int w : SQUARE_WINDOWS[square]) {
+            int before = codes[w], after = before + step;
+            codes[w] = (byte) after;
+            score += CODE_SCORES[after] - CODE_SCORES[before];
+            liveWindows[BitBoard.RED] += CODE_LIVE[BitBoard.RED][after] - CODE_LIVE[BitBoard.RED][before];
+            liveWindows[BitBoard.BLACK] += CODE_LIVE[BitBoard.BLACK][after] - CODE_LIVE[BitBoard.BLACK][before];
+        }
+    }
+
+    /**
+     * Accounts for PLAYER's piece being taken off of square SQUARE. This is the exact reverse of add.
+     */
+    void remove(int player, int square) {
+        int step = CODE_STEP[player];
+        for (int w : SQUARE_WINDOWS[square]) {
+            int before = codes[w], after = before - step;
+            codes[w] = (byte) after;
+            score += CODE_SCORES[after] - CODE_SCORES[before];
+            liveWindows[BitBoard.RED] += CODE_LIVE[BitBoard.RED][after] - CODE_LIVE[BitBoard.RED][before];
+            liveWindows[BitBoard.BLACK] += CODE_LIVE[BitBoard.BLACK][after] - CODE_LIVE[BitBoard.BLACK][before];
+        }
+    }
+
+    /**
+     * Returns the scores that PLAYER would have after placing a piece on each of the COUNT
+     * (bitboard) squares in SQUARES, one at a time, and puts them into SCORES.
+     * The evaluator itself is left unchanged.
+     */
+    void scoreMoves(int player, int[] squares, int[] scores, int count) {
+        int step = CODE_STEP[player];
+        int base = getScore(player), sign = (player == BitBoard.RED) ? 1 : -1;
+        for (int i = 0; i < count; i++) {
+            int delta = 0;
+            for (int w : SQUARE_WINDOWS[squares[i]]) {
+                int code = codes[w];
+                delta += CODE_SCORES[code + step] - CODE_SCORES[code];
+            }
+            scores[i] = base + sign * delta;
+        }
+    }
+
+    /**
+     * Returns true if somebody could still connect four after PLAYER places a piece on SQUARE.
+     * The evaluator itself is left unchanged.
+     */
+    boolean canAnyoneWinAfter(int player, int square) {
+        if (liveWindows[player] > 0) {
+            return true; // our own piece can't spoil any of our windows
+        }
+        int lost = 0; // the other player's live windows that the piece would spoil
+        for (int w : SQUARE_WINDOWS[square]) {
+            lost += CODE_LIVE[player ^ 1][codes[w]];
+        }
+
+        return liveWindows[player ^ 1] > lost;
+    }
+
+    /**
+     * Returns the heuristic score of the position for player PLAYER
+     * (positive is good for them, negative is bad).
+     */
+    public int getScore(int player) {
+        return (player == BitBoard.RED) ? score : -score;
+    }
+
+    /**
+     * Returns true if there's still a window in which somebody could connect four.
+     * If not, the game can only end in a draw.
+     */
+    public boolean canAnyoneWin() {
+        return liveWindows[BitBoard.RED] > 0 || liveWindows[BitBoard.BLACK] > 0;
+    }
+}
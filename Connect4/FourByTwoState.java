@@ -0,0 +1,117 @@
+package Connect4;
+
+import java.util.SplittableRandom;
+
+/**
+ * The Four by Two variant (see FourByTwoBoard), as a GameState: regular Connect Four,
+ * except that every turn after the first is two drops instead of one. Moves are columns
+ * (a whole turn is two moves in a row by the same player). The position is kept as two
+ * bitboards laid out the same way as BitBoard's.
+ * @author Owen Jow
+ */
+class FourByTwoState implements GameState {
+    private long current, mask; // the pieces of the player to move, and every piece
+    private int toMove, winner = NOBODY;
+    private int drops; // the number of drops so far (the turn changes after drops 1, 3, 5, ...)
+    private boolean over;
+
+    /**
+     * Constructs the empty board, with red to move.
+     */
+    FourByTwoState() {
+        toMove = BitBoard.RED;
+    }
+
+    private FourByTwoState(FourByTwoState other) {
+        current = other.current;
+        mask = other.mask;
+        toMove = other.toMove;
+        winner = other.winner;
+        drops = other.drops;
+        over = other.over;
+    }
+
+    @Override
+    public int getNumPlayers() {
+        return 2;
+    }
+
+    @Override
+    public int getToMove() {
+        return toMove;
+    }
+
+    @Override
+    public int getMoves(int[] moves) {
+        long possible = BitBoard.possibleMoves(mask);
+        int n = 0;
+        for (int c : AI.SELECTION_ORDER) {
+            if ((possible & BitBoard.columnMask(c)) != 0) { moves[n++] = c; }
+        }
+        return n;
+    }
+
+    @Override
+    public int getMaxMoves() {
+        return BitBoard.WIDTH;
+    }
+
+    @Override
+    public void play(int col) {
+        long b = BitBoard.possibleMoves(mask) & BitBoard.columnMask(col);
+        current |= b;
+        mask |= b;
+        if (BitBoard.hasFour(current)) {
+            winner = toMove;
+            over = true;
+        } else if (mask == BitBoard.ALL_SQUARES) {
+            over = true;
+        }
+        if (drops++ % 2 == 0) {
+            current ^= mask; // the other player's turn
+            toMove ^= 1;
+        }
+    }
+
+    @Override
+    public boolean isOver() {
+        return over;
+    }
+
+    @Override
+    public int getWinner() {
+        return winner;
+    }
+
+    /**
+     * Takes a win if there is one, and otherwise picks any column at random.
+     */
+    @Override
+    public int randomMove(SplittableRandom random) {
+        long possible = BitBoard.possibleMoves(mask);
+        long wins = BitBoard.winningSquares(current, mask) & possible;
+        if (wins != 0) {
+            return BitBoard.columnOf(wins);
+        }
+
+        for (int k = random.nextInt(Long.bitCount(possible)); k > 0; k--) {
+            possible &= possible - 1;
+        }
+        return BitBoard.columnOf(possible);
+    }
+
+    /**
+     * Returns the position's code (as in BitBoard.getCode, but with the pieces of the player
+     * to move), which is different for every position. (The number of pieces says whose turn it is,
+     * and whether it's their first drop or their second.)
+     */
+    @Override
+    public long getHash() {
+        return current + mask + BitBoard.BOTTOM_ROW;
+    }
+
+    @Override
+    public GameState copy() {
+        return new FourByTwoState(this);
+    }
+}
@@ -0,0 +1,90 @@
+package Connect4;
+
+/**
+ * The children of a "frontier" node (one with a single ply left to search, so that its children
+ * are all leaves), batched up to be scored together. Rather than playing each move and scoring
+ * it separately, all of the children are scored in one batch, straight from the evaluator, and
+ * then tried best-first: a child that ends the game is rescored by the same checks that
+ * AI.negamax makes on arrival, and the search stops as soon as a child reaches beta.
+ *
+ * AI.negamax and ParallelSearch both search their frontier nodes with one of these. It's only
+ * scratch space, so each thread needs its own.
+ * @author Owen Jow
+ */
+class Frontier {
+    private final int[] squares = new int[BitBoard.WIDTH];
+    private final int[] moves = new int[BitBoard.WIDTH];
+    private final int[] scores = new int[BitBoard.WIDTH];
+    private int numSearched, bestMove;
+
+    /**
+     * Searches the children of BOARD (which must have an evaluator attached) that are in ALLOWED,
+     * which must all be non-losing moves, and returns the best score among them as negamax
+     * would have (failing soft at BETA). See getBestMove and getNumSearched for the rest.
+     */
+    int search(BitBoard board, long allowed, int beta) {
+        int player = board.getToMove();
+        int numMoves = board.getNumMoves();
+        long mine = board.getPieces(player), mask = board.getMask();
+        int numChildren = 0;
+        for (int c : AI.SELECTION_ORDER) {
+            if ((allowed & BitBoard.columnMask(c)) != 0) {
+                squares[numChildren] = Long.numberOfTrailingZeros(board.moveBit(c));
+                moves[numChildren++] = c;
+            }
+        }
+        Evaluator evaluator = board.getEvaluator();
+        evaluator.scoreMoves(player, squares, scores, numChildren);
+
+        int best = -AI.MAX_SCORE;
+        bestMove = TranspositionTable.NO_MOVE;
+        numSearched = 0;
+        while (numSearched < numChildren && best < beta) {
+            // Take the highest heuristic score that's left (ties go to the more central column)
+            int i = numSearched;
+            for (int j = i + 1; j < numChildren; j++) {
+                if (scores[j] > scores[i]) { i = j; }
+            }
+            int c = moves[i], square = squares[i], score = scores[i];
+            for (; i > numSearched; i--) { // shift the ones it skipped, which keeps them in order
+                moves[i] = moves[i - 1];
+                squares[i] = squares[i - 1];
+                scores[i] = scores[i - 1];
+            }
+            numSearched++;
+
+            // The checks that negamax makes when it arrives at a node, from our side of the board.
+            // (The other player can't have a winning move there, since all of our moves are
+            // non-losing ones.)
+            long b = 1L << square;
+            long childPieces = mine | b, childMask = mask | b;
+            if (numMoves + 1 == BitBoard.SIZE || !evaluator.canAnyoneWinAfter(player, square)) {
+                score = 0;
+            } else if (BitBoard.nonLosingMoves(BitBoard.possibleMoves(childMask),
+                    BitBoard.winningSquares(childPieces, childMask)) == 0) {
+                score = AI.winScore(numMoves + 3);
+            }
+
+            if (score > best) {
+                best = score;
+                bestMove = c;
+            }
+        }
+
+        return best;
+    }
+
+    /**
+     * Returns the move with the best score in the last search.
+     */
+    int getBestMove() {
+        return bestMove;
+    }
+
+    /**
+     * Returns the number of children that the last search looked at.
+     */
+    int getNumSearched() {
+        return numSearched;
+    }
+}
@@ -0,0 +1,72 @@
+package Connect4;
+
+import java.util.SplittableRandom;
+
+/**
+ * A position in some variant of the game, as MonteCarlo sees it: nothing but the rules.
+ * There's no heuristic here (nothing about which positions look good), so the same search works
+ * for every variant that has one of these, including the ones that the AI's evaluator
+ * knows nothing about (like Removal and Warfare).
+ *
+ * Players are numbered from 0, in turn order. Moves are ints whose meaning is up to
+ * the variant (a column, a square, ...).
+ * @author Owen Jow
+ */
+interface GameState {
+    int NOBODY = -1; // the "winner" of a game that's drawn or isn't over yet
+
+    /**
+     * Returns the number of players taking turns.
+     */
+    int getNumPlayers();
+
+    /**
+     * Returns the player who is next to play.
+     */
+    int getToMove();
+
+    /**
+     * Fills MOVES with every legal move and returns how many there are.
+     * MOVES must have room for at least getMaxMoves() of them.
+     */
+    int getMoves(int[] moves);
+
+    /**
+     * Returns the most legal moves that a position in this game can ever have.
+     */
+    int getMaxMoves();
+
+    /**
+     * Plays the (legal) move MOVE for the player to move, and passes the turn
+     * (if the variant's rules say it should pass).
+     */
+    void play(int move);
+
+    /**
+     * Returns true if somebody has won, or if the game is drawn.
+     */
+    boolean isOver();
+
+    /**
+     * Returns the player who won, or NOBODY.
+     */
+    int getWinner();
+
+    /**
+     * Returns a legal move for a random playout, using RANDOM. The choice doesn't have to be
+     * uniform; a variant can make its playouts a little less silly if that's cheap to do
+     * (say, by always taking a win when there is one).
+     */
+    int randomMove(SplittableRandom random);
+
+    /**
+     * Returns a 64-bit hash of this position, including whose turn it is. The same position
+     * always has the same hash, however it was reached, and different positions almost never do.
+     */
+    long getHash();
+
+    /**
+     * Returns a copy of this position, which can be played on without affecting this one.
+     */
+    GameState copy();
+}
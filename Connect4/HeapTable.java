@@ -0,0 +1,91 @@
+package Connect4;
+
+import java.util.Arrays;
+
+/**
+ * A transposition table that lives on the Java heap.
+ * Entries are kept in two parallel primitive arrays (so there's no per-entry garbage):
+ * one holds the full hash of the stored position, and the other holds the packed entry.
+ *
+ * This is the table the game itself uses. It isn't safe to share between threads.
+ * @author Owen Jow
+ */
+public class HeapTable extends TranspositionTable {
+    private final long[] keys;
+    private final long[] data;
+    private final int indexMask;
+
+    /**
+     * Constructs a table with 2^SIZE_BITS entries.
+     */
+    public HeapTable(int sizeBits) {
+        keys = new long[1 << sizeBits];
+        data = new long[1 << sizeBits];
+        indexMask = (1 << sizeBits) - 1;
+    }
+
+    /**
+     * Returns the slot in which the position with hash KEY would be stored.
+     */
+    private int index(long key) {
+        return (int) (key ^ (key >>> 32)) & indexMask;
+    }
+
+    @Override
+    long probe(long key) {
+        int i = index(key);
+        return (keys[i] == key) ? data[i] : 0;
+    }
+
+    @Override
+    void store(long key, int score, int depth, int bound, int move) {
+        int i = index(key);
+        long old = data[i];
+        boolean sameKey = (keys[i] == key);
+        if (shouldReplace(old, sameKey, depth)) {
+            keys[i] = key;
+            data[i] = pack(sameKey ? old : 0, score, depth, bound, move);
+        }
+    }
+
+    /**
+     * Returns the number of slots in the table.
+     */
+    int capacity() {
+        return keys.length;
+    }
+
+    /**
+     * Returns the hash stored in slot I (0 if it's empty). Along with getEntry and restore,
+     * this lets the table be saved and loaded a slot at a time (see SolveCheckpoint).
+     */
+    long getKey(int i) {
+        return keys[i];
+    }
+
+    /**
+     * Returns the packed entry stored in slot I.
+     */
+    long getEntry(int i) {
+        return data[i];
+    }
+
+    /**
+     * Puts the saved slot KEY / ENTRY back, unless the slot it belongs in already holds
+     * something at least as deep from the current search.
+     */
+    void restore(long key, long entry) {
+        int i = index(key);
+        if (shouldReplace(data[i], keys[i] == key, getDepth(entry))) {
+            keys[i] = key;
+            data[i] = entry;
+        }
+    }
+
+    @Override
+    void clear() {
+        Arrays.fill(keys, 0);
+        Arrays.fill(data, 0);
+        generation = 1;
+    }
+}
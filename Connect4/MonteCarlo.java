@@ -0,0 +1,205 @@
+package Connect4;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The other computer player: Monte Carlo Tree Search. Rather than scoring positions with
+ * a heuristic, it plays lots of quick random games ("playouts") from the current position and
+ * keeps the statistics in a tree, which it grows toward the moves that keep winning. It works
+ * for any GameState, so it can play the variants that the AI can't (like Removal and Warfare),
+ * and it just gets better the more time (and the more threads) it's given.
+ *
+ * Every iteration goes down the tree by the UCT rule (the move with the best average result,
+ * plus a bonus for moves that haven't been tried much), adds the children of the node it
+ * ends up at once that node has been visited before, plays a random game from there,
+ * and credits the result to every node along the way. A node's result is from the point of view
+ * of the player who made its move: 1 for a win, 0 for a loss, and an even share for a draw.
+ *
+ * All of the threads work on the same tree ("tree parallelization"). There are no locks:
+ * each node's visits and total reward are packed into one AtomicLong, and a node's children are
+ * put in place with a single compare-and-set. A thread on its way down counts its visit
+ * right away, before it knows the result (a "virtual loss"), which makes the other threads
+ * less likely to follow it down the same path; the reward is added once the playout is over.
+ * @author Owen Jow
+ */
+public class MonteCarlo {
+    static final double EXPLORATION = Math.sqrt(2); // the UCT constant
+    static final int EXPAND_AFTER = 1; // a node's children are added on its visit after this many
+    static final int MAX_PLAYOUT_PLIES = 400; // a playout that goes on longer than this is a draw
+
+    // Rewards are counted in units of 1/REWARD_UNIT of a win, so that a share of a draw
+    // between 2, 3 or 4 players is still a whole number
+    private static final int REWARD_UNIT = 12;
+    private static final long VISIT = 1L << 32; // the stats are [ visits : 32 | total reward : 32 ]
+
+    private static long lastIterations; // the number of playouts behind the last move
+
+    private MonteCarlo() {}
+
+    /**
+     * A move that has been tried, and the statistics for what happened after it.
+     */
+    private static final class Node {
+        private static final AtomicReferenceFieldUpdater<Node, Node[]> CHILDREN =
+                AtomicReferenceFieldUpdater.newUpdater(Node.class, Node[].class, "children");
+
+        final int move;
+        final int mover; // the player who made the move
+        final AtomicLong stats = new AtomicLong();
+        volatile Node[] children; // null until the node is expanded
+
+        Node(int move, int mover) {
+            this.move = move;
+            this.mover = mover;
+        }
+
+        /**
+         * Adds children to this node for every legal move in STATE (which is this node's position),
+         * unless another thread has already done it, and returns them.
+         */
+        Node[] expand(GameState state, int[] moves) {
+            int n = state.getMoves(moves);
+            Node[] kids = new Node[n];
+            for (int i = 0; i < n; i++) {
+                kids[i] = new Node(moves[i], state.getToMove());
+            }
+            return CHILDREN.compareAndSet(this, null, kids) ? kids : children;
+        }
+    }
+
+    /**
+     * Returns the best move for the player to move in STATE (where the game isn't over),
+     * searching for TIME_LIMIT milliseconds with THREADS threads.
+     */
+    public static int getBestMove(GameState state, long timeLimit, int threads) {
+        long deadline = System.nanoTime() + timeLimit * 1000000L;
+        Node root = new Node(TranspositionTable.NO_MOVE, GameState.NOBODY);
+        int[] moves = new int[state.getMaxMoves()];
+        Node[] rootChildren = root.expand(state, moves);
+        if (rootChildren.length == 1) {
+            lastIterations = 0;
+            return rootChildren[0].move; // there's nothing to think about
+        }
+
+        LongAdder iterations = new LongAdder();
+        SplittableRandom seed = new SplittableRandom();
+        Thread[] helpers = new Thread[Math.max(threads, 1) - 1];
+        for (int i = 0; i < helpers.length; i++) {
+            SplittableRandom random = seed.split();
+            helpers[i] = new Thread(() -> search(root, state, deadline, random, iterations),
+                    "monte-carlo-" + i);
+            helpers[i].setDaemon(true);
+            helpers[i].start();
+        }
+        search(root, state, deadline, seed, iterations);
+        for (Thread helper : helpers) {
+            try {
+                helper.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        lastIterations = iterations.sum();
+
+        // The move that was tried the most is the one the search trusts the most
+        Node best = rootChildren[0];
+        for (Node child : rootChildren) {
+            long s = child.stats.get(), b = best.stats.get();
+            if ((s >>> 32) > (b >>> 32) || ((s >>> 32) == (b >>> 32) && (int) s > (int) b)) {
+                best = child;
+            }
+        }
+        return best.move;
+    }
+
+    /**
+     * Returns the number of playouts that went into the last move getBestMove returned.
+     */
+    public static long getLastIterations() {
+        return lastIterations;
+    }
+
+    /**
+     * Runs iterations from ROOT (whose position is STATE) until DEADLINE, in System.nanoTime() terms.
+     */
+    private static void search(Node root, GameState state, long deadline, SplittableRandom random,
+                               LongAdder iterations) {
+        int numPlayers = state.getNumPlayers();
+        int[] moves = new int[state.getMaxMoves()];
+        Node[] path = new Node[MAX_PLAYOUT_PLIES + 1];
+        long count = 0;
+        while (System.nanoTime() < deadline) {
+            GameState s = state.copy();
+
+            // Go down the tree, counting our visit at every node as we go
+            Node node = root;
+            int length = 0;
+            path[length++] = node;
+            node.stats.addAndGet(VISIT);
+            while (!s.isOver() && length < path.length) {
+                Node[] children = node.children;
+                if (children == null) {
+                    if ((node.stats.get() >>> 32) <= EXPAND_AFTER) { break; }
+                    children = node.expand(s, moves);
+                }
+
+                node = select(node, children);
+                node.stats.addAndGet(VISIT);
+                s.play(node.move);
+                path[length++] = node;
+            }
+
+            // Finish the game at random, and credit the result all the way back up
+            int winner = playout(s, random);
+            for (int i = 0; i < length; i++) {
+                Node n = path[i];
+                n.stats.addAndGet((winner == n.mover) ? REWARD_UNIT
+                        : (winner == GameState.NOBODY) ? REWARD_UNIT / numPlayers : 0);
+            }
+            count++;
+        }
+
+        iterations.add(count);
+    }
+
+    /**
+     * Returns the child of PARENT (out of CHILDREN) with the highest UCT value.
+     * Children that haven't been visited yet come first.
+     */
+    private static Node select(Node parent, Node[] children) {
+        double logVisits = Math.log(Math.max(1, parent.stats.get() >>> 32));
+        Node best = children[0];
+        double bestValue = Double.NEGATIVE_INFINITY;
+        for (Node child : children) {
+            long stats = child.stats.get();
+            long visits = stats >>> 32;
+            if (visits == 0) {
+                return child;
+            }
+            double value = (stats & 0xFFFFFFFFL) / (double) (REWARD_UNIT * visits)
+                    + EXPLORATION * Math.sqrt(logVisits / visits);
+            if (value > bestValue) {
+                bestValue = value;
+                best = child;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Plays random moves on STATE until the game is over (or has gone on for MAX_PLAYOUT_PLIES),
+     * and returns the winner.
+     */
+    private static int playout(GameState state, SplittableRandom random) {
+        for (int plies = 0; !state.isOver(); plies++) {
+            if (plies == MAX_PLAYOUT_PLIES) {
+                return GameState.NOBODY;
+            }
+            state.play(state.randomMove(random));
+        }
+        return state.getWinner();
+    }
+}
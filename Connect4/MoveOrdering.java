@@ -0,0 +1,111 @@
+package Connect4;
+
+import java.util.Arrays;
+
+/**
+ * What a search has learned about which moves to try first: the killer moves (the last two
+ * moves that caused a cutoff at each move number) and the history table (how much each move
+ * has caused cutoffs, by player and square). AI.negamax and ParallelSearch both order their
+ * moves with one of these.
+ *
+ * A ParallelSearch shares one between all of its threads. Their updates race, but that's
+ * harmless: a lost or garbled update only ever affects the order moves are tried in.
+ * @author Owen Jow
+ */
+class MoveOrdering {
+    // Moves are sorted by a key: the table's move comes first, then moves that set up
+    // the most new threats, then killer moves, then whatever the history table likes.
+    static final int THREAT_WEIGHT = 1 << 22, KILLER_WEIGHT = 1 << 20;
+
+    private final int[][] killers = new int[BitBoard.SIZE + 1][2]; // indexed by move number
+    private final int[][] history = new int[2][BitBoard.WIDTH * BitBoard.H1]; // [player][square]
+
+    MoveOrdering() {
+        clear();
+    }
+
+    /**
+     * Forgets all of the killer moves and history scores.
+     */
+    void clear() {
+        for (int[] k : killers) {
+            Arrays.fill(k, TranspositionTable.NO_MOVE);
+        }
+        for (int[] h : history) {
+            Arrays.fill(h, 0);
+        }
+    }
+
+    /**
+     * Halves every history score, so that what was learned in old searches slowly fades out.
+     */
+    void age() {
+        for (int[] h : history) {
+            for (int i = 0; i < h.length; i++) {
+                h[i] >>= 1;
+            }
+        }
+    }
+
+    /**
+     * Fills MOVES with the columns on BOARD whose next square is in ALLOWED (a bitboard),
+     * best-looking first, and returns how many there are. KEYS (as long as MOVES) is scratch space.
+     * TT_MOVE (the transposition table's best move, or NO_MOVE) always goes first. After that,
+     * moves are sorted by the number of threats (squares that would win) they leave their player,
+     * then by whether they're killer moves at this move number, and then by the history table.
+     * Ties go to the more central column.
+     */
+    int orderMoves(BitBoard board, int ttMove, long allowed, int[] moves, int[] keys) {
+        int player = board.getToMove();
+        int ply = board.getNumMoves();
+        long pieces = board.getPieces(player), mask = board.getMask();
+        int[] k = killers[ply], h = history[player];
+
+        int n = 0;
+        for (int c : AI.SELECTION_ORDER) {
+            if ((allowed & BitBoard.columnMask(c)) == 0) { continue; }
+
+            int key;
+            if (c == ttMove) {
+                key = Integer.MAX_VALUE;
+            } else {
+                long b = board.moveBit(c);
+                key = Long.bitCount(BitBoard.winningSquares(pieces | b, mask | b)) * THREAT_WEIGHT
+                        + Math.min(h[Long.numberOfTrailingZeros(b)], KILLER_WEIGHT - 1);
+                if (c == k[0] || c == k[1]) {
+                    key += KILLER_WEIGHT;
+                }
+            }
+
+            // Insertion sort (stable, so that equal keys stay in SELECTION_ORDER)
+            int j = n++;
+            for (; j > 0 && keys[j - 1] < key; j--) {
+                keys[j] = keys[j - 1];
+                moves[j] = moves[j - 1];
+            }
+            keys[j] = key;
+            moves[j] = c;
+        }
+
+        return n;
+    }
+
+    /**
+     * Remembers that playing in column COL on BOARD caused a cutoff at depth DEPTH,
+     * by making it a killer move for this move number and crediting it in the history table.
+     */
+    void recordCutoff(BitBoard board, int col, int depth) {
+        int[] k = killers[board.getNumMoves()];
+        if (k[0] != col) {
+            k[1] = k[0];
+            k[0] = col;
+        }
+
+        int[] h = history[board.getToMove()];
+        int square = Long.numberOfTrailingZeros(board.moveBit(col));
+        h[square] += depth * depth;
+        if (h[square] >= KILLER_WEIGHT) {
+            age(); // don't let the history outweigh the killers
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package Connect4;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.IntStream;
+
+/**
+ * A transposition table that lives outside of the Java heap, for deep analysis runs
+ * that want a table much bigger than the heap (say, 8 GB) and don't want the garbage
+ * collector walking over it.
+ *
+ * The memory is a set of direct ByteBuffers ("shards"), since a single buffer can't be bigger
+ * than 2 GB. Every slot is two longs: the packed entry, and the entry XORed with the key.
+ * There are no locks; any number of threads can probe and store at the same time.
+ * If two threads write the same slot at once, the two halves might end up coming from
+ * different writes -- but then the XOR check fails, and the slot just looks empty.
+ * @author Owen Jow
+ */
+public class OffHeapTable extends TranspositionTable {
+    private static final int SLOT_BYTES = 16; // check word + entry word
+    private static final int SHARD_BITS = 26; // 2^26 slots per shard = 1 GB
+    private static final int CLEAR_CHUNK = 1 << 16; // bytes zeroed at once while clearing
+    private static final byte[] ZEROS = new byte[CLEAR_CHUNK];
+    private static final VarHandle LONGS =
+            MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    private final ByteBuffer[] shards;
+    private final long slotMask;
+    private final int shardBits;
+
+    // Statistics. These are only approximate while other threads are storing.
+    private final LongAdder used = new LongAdder(), probes = new LongAdder(),
+            collisions = new LongAdder();
+
+    /**
+     * Constructs a table that uses (at most) NUM_BYTES bytes of memory.
+     * The number of slots is rounded down to a power of two.
+     */
+    public OffHeapTable(long numBytes) {
+        long numSlots = Long.highestOneBit(Math.max(numBytes / SLOT_BYTES, 1));
+        slotMask = numSlots - 1;
+        shardBits = Math.min(SHARD_BITS, Long.numberOfTrailingZeros(numSlots));
+
+        int numShards = (int) (numSlots >>> shardBits);
+        shards = new ByteBuffer[numShards];
+        for (int i = 0; i < numShards; i++) {
+            shards[i] = ByteBuffer.allocateDirect((1 << shardBits) * SLOT_BYTES)
+                    .order(ByteOrder.nativeOrder());
+        }
+    }
+
+    /**
+     * Parses a size setting like "8G", "512m" or "1048576" into a number of bytes.
+     * @throws NumberFormatException if SIZE doesn't look like a size
+     */
+    @SuppressWarnings("fallthrough") // each unit is 1024 of the next one down
+    static long parseSize(String size) {
+        size = size.trim().toUpperCase();
+        long unit = 1;
+        switch (size.charAt(size.length() - 1)) {
+            case 'G':
+                unit <<= 10; // fall through
+            case 'M':
+                unit <<= 10; // fall through
+            case 'K':
+                unit <<= 10;
+                size = size.substring(0, size.length() - 1);
+        }
+
+        return Long.parseLong(size) * unit;
+    }
+
+    /**
+     * Returns the number of slots in the table.
+     */
+    public long capacity() {
+        return slotMask + 1;
+    }
+
+    @Override
+    long probe(long key) {
+        long slot = key & slotMask;
+        ByteBuffer shard = shards[(int) (slot >>> shardBits)];
+        int offset = (int) (slot & ((1 << shardBits) - 1)) * SLOT_BYTES;
+        long check = (long) LONGS.getOpaque(shard, offset);
+        long entry = (long) LONGS.getOpaque(shard, offset + 8);
+
+        probes.increment();
+        if ((check ^ entry) == key && entry != 0) {
+            return entry;
+        } else if (entry != 0) {
+            collisions.increment(); // somebody else's position (or a torn write)
+        }
+
+        return 0;
+    }
+
+    @Override
+    void store(long key, int score, int depth, int bound, int move) {
+        long slot = key & slotMask;
+        ByteBuffer shard = shards[(int) (slot >>> shardBits)];
+        int offset = (int) (slot & ((1 << shardBits) - 1)) * SLOT_BYTES;
+        long check = (long) LONGS.getOpaque(shard, offset);
+        long old = (long) LONGS.getOpaque(shard, offset + 8);
+
+        boolean sameKey = (check ^ old) == key;
+        if (shouldReplace(old, sameKey, depth)) {
+            long entry = pack(sameKey ? old : 0, score, depth, bound, move);
+            LONGS.setOpaque(shard, offset, key ^ entry);
+            LONGS.setOpaque(shard, offset + 8, entry);
+            if (old == 0) {
+                used.increment();
+            }
+        }
+    }
+
+    /**
+     * Empties the table, zeroing all of the shards in parallel.
+     */
+    @Override
+    void clear() {
+        int chunkBytes = Math.min(CLEAR_CHUNK, (1 << shardBits) * SLOT_BYTES);
+        int chunksPerShard = (1 << shardBits) * SLOT_BYTES / chunkBytes;
+        IntStream.range(0, shards.length * chunksPerShard).parallel().forEach(i -> {
+            shards[i / chunksPerShard].put((i % chunksPerShard) * chunkBytes, ZEROS, 0, chunkBytes);
+        });
+
+        used.reset();
+        probes.reset();
+        collisions.reset();
+        generation = 1;
+    }
+
+    /**
+     * Returns the fraction of slots that hold an entry (from 0 to 1).
+     */
+    public double getFillRate() {
+        return Math.min(1.0, used.doubleValue() / capacity());
+    }
+
+    /**
+     * Returns the fraction of probes that found a slot taken by a different position.
+     */
+    public double getCollisionRate() {
+        long n = probes.sum();
+        return (n == 0) ? 0 : collisions.doubleValue() / n;
+    }
+}
@@ -0,0 +1,352 @@
+package Connect4;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+import java.util.stream.LongStream;
+
+/**
+ * The solved results for every position in the first few plies of the game, worked out ahead
+ * of time (by running this class's main method) and looked up during play. Those positions
+ * are the hardest ones to solve and the ones that come up in every game, so having them
+ * on hand means that perfect play can start from the very first move.
+ *
+ * The book is a file of sorted 8-byte entries, after a 16-byte header (a magic number,
+ * the format version, the ply it goes up to, and the number of entries). Each entry is
+ *   [ position code : 56 | outcome + 1 : 4 | best move : 4 ]
+ * where the position code is the smaller of BitBoard's codes for the position and its mirror
+ * image, and the move is for whichever of the two that is. The file is memory-mapped, so
+ * lookups are a binary search that doesn't touch the heap at all.
+ *
+ * The book ships as the resource /book/openings.bin (next to /images); a different file can
+ * be used by setting the BOOK_PROPERTY system property to its path. If there's no book,
+ * every lookup just misses. The one that ships goes 6 plies deep, for games that open in
+ * the middle column (as the computer's always do), which one core can make in a couple of hours.
+ * A deeper book (12 plies, say) takes a farm of cores and is too big to ship in the jar,
+ * so it's meant to be made offline and passed in with BOOK_PROPERTY.
+ * @author Owen Jow
+ */
+public class OpeningBook {
+    static final String BOOK_RESOURCE = "/book/openings.bin";
+    static final String BOOK_PROPERTY = "connect4.openingBook"; // e.g. -Dconnect4.openingBook=book.bin
+    private static final int MAGIC = 0x43344B42; // "C4KB"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 16;
+    private static final int CODE_SHIFT = 8, OUTCOME_SHIFT = 4;
+    private static final int SOLVER_TABLE_BITS = 22; // per thread, while generating
+
+    private final LongBuffer entries; // null if there's no book
+    private final int maxPly;
+
+    private OpeningBook(LongBuffer entries, int maxPly) {
+        this.entries = entries;
+        this.maxPly = maxPly;
+    }
+
+    /**
+     * Loads the book from the file named by BOOK_PROPERTY, or else from BOOK_RESOURCE.
+     * Returns an empty book if there isn't one (or if it can't be read).
+     */
+    static OpeningBook load() {
+        try {
+            String path = System.getProperty(BOOK_PROPERTY);
+            if (path != null) {
+                return map(new File(path));
+            }
+
+            // A resource inside of a jar can't be mapped directly, so it's copied out first
+            InputStream in = OpeningBook.class.getResourceAsStream(BOOK_RESOURCE);
+            if (in == null) {
+                return new OpeningBook(null, -1);
+            }
+            File copy = File.createTempFile("connect4-book", ".bin");
+            copy.deleteOnExit();
+            try (InputStream resource = in) {
+                Files.copy(resource, copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            return map(copy);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Couldn't load the opening book: " + e);
+            return new OpeningBook(null, -1);
+        }
+    }
+
+    /**
+     * Memory-maps the book in FILE.
+     */
+    private static OpeningBook map(File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                throw new IOException(file + " isn't an opening book");
+            }
+            int maxPly = buffer.getInt(8), count = buffer.getInt(12);
+            buffer.position(HEADER_BYTES);
+            LongBuffer entries = buffer.slice().asLongBuffer();
+            entries.limit(count);
+
+            return new OpeningBook(entries, maxPly);
+        }
+    }
+
+    /**
+     * Returns the deepest ply that the book covers (or -1 if there's no book).
+     */
+    public int getMaxPly() {
+        return maxPly;
+    }
+
+    /**
+     * Returns the book's move for POSITION, or NO_MOVE if the position isn't in the book.
+     * The move keeps the position's outcome (see getOutcome), though it isn't necessarily
+     * the quickest way to win.
+     */
+    public int getMove(BitBoard position) {
+        long code = position.getCode();
+        long entry = find(Math.min(code, BitBoard.mirror(code)));
+        if (entry == 0) {
+            return TranspositionTable.NO_MOVE;
+        }
+
+        int move = (int) (entry & ((1 << OUTCOME_SHIFT) - 1));
+        return (BitBoard.mirror(code) < code) ? BitBoard.WIDTH - 1 - move : move;
+    }
+
+    /**
+     * Returns the outcome of POSITION for the player to move (one of ColumnResult's WIN, DRAW
+     * and LOSS), or ColumnResult.UNKNOWN if the position isn't in the book.
+     */
+    public int getOutcome(BitBoard position) {
+        long code = position.getCode();
+        return getOutcome(Math.min(code, BitBoard.mirror(code)));
+    }
+
+    /**
+     * Returns the outcome of the position with the canonical code CODE (as in getOutcome).
+     */
+    int getOutcome(long code) {
+        long entry = find(code);
+        if (entry == 0) {
+            return ColumnResult.UNKNOWN;
+        }
+
+        return (int) ((entry >>> OUTCOME_SHIFT) & 0xF) - 1;
+    }
+
+    /**
+     * Returns the entry for the position with the (canonical) code CODE, or 0 if there isn't one.
+     */
+    private long find(long code) {
+        if (entries == null) {
+            return 0;
+        }
+
+        int lo = 0, hi = entries.limit() - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            long entry = entries.get(mid);
+            long midCode = entry >>> CODE_SHIFT;
+            if (midCode < code) {
+                lo = mid + 1;
+            } else if (midCode > code) {
+                hi = mid - 1;
+            } else {
+                return entry;
+            }
+        }
+
+        return 0;
+    }
+
+    //================================================================================
+    // Generating the book
+    //================================================================================
+
+    /**
+     * Generates a book and writes it to a file. Usage:
+     *   java Connect4.OpeningBook MAX_PLY OUTPUT_FILE [THREADS] [SECONDS_PER_POSITION] [FIRST_COLUMN]
+     * Every position up to MAX_PLY plies in is solved for its outcome, using THREADS threads
+     * (all of the cores, by default). With SECONDS_PER_POSITION, a position that takes any longer
+     * than that is left out of the book, and has to be solved during play instead. With
+     * FIRST_COLUMN, only the positions that can come up after a first move in that column
+     * (or its mirror image) are solved; the computer always opens in the middle, so
+     * FIRST_COLUMN 3 is all it needs, at a fraction of the cost.
+     *
+     * The deepest ply is solved first, and then each ply above it with the results below it
+     * taken as given (see EndgameSolver.setBook), so only the deepest ply takes real work.
+     * The book that ships (BOOK_RESOURCE) was made with "6 book/openings.bin 1 600 3".
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: java Connect4.OpeningBook MAX_PLY OUTPUT_FILE"
+                    + " [THREADS] [SECONDS_PER_POSITION] [FIRST_COLUMN]");
+            System.exit(1);
+        }
+        int maxPly = Integer.parseInt(args[0]);
+        int threads = (args.length > 2) ? Integer.parseInt(args[2])
+                : Runtime.getRuntime().availableProcessors();
+        long timeLimit = (args.length > 3) ? (long) (Double.parseDouble(args[3]) * 1e9) : Long.MAX_VALUE;
+        int firstColumn = (args.length > 4) ? Integer.parseInt(args[4]) : -1;
+
+        long start = System.nanoTime();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        long[] positions = pool.submit(() -> enumerate(maxPly)).get();
+        if (firstColumn >= 0) {
+            positions = Arrays.stream(positions).filter(code -> opensIn(code, firstColumn)).toArray();
+        }
+        System.out.println(positions.length + " positions to solve");
+
+        long[] all = positions;
+        long[] entries = pool.submit(() -> solveAll(all, maxPly, timeLimit)).get();
+        pool.shutdown();
+        write(new File(args[1]), entries, maxPly);
+        System.out.printf("Wrote %d of %d positions in %.1f s%n", entries.length, positions.length,
+                (System.nanoTime() - start) / 1e9);
+    }
+
+    /**
+     * Returns true if the position with the (canonical) code CODE could have started with a move
+     * in column COL, or in its mirror image: that is, if the first player has the bottom square
+     * of one of those columns. (The empty board counts too.)
+     */
+    static boolean opensIn(long code, int col) {
+        if (code == BitBoard.BOTTOM_ROW) {
+            return true;
+        }
+        for (int c : new int[] {col, BitBoard.WIDTH - 1 - col}) {
+            long column = (code >>> (c * BitBoard.H1)) & ((1L << BitBoard.H1) - 1);
+            if (column > 1 && (column & 1) != 0) { return true; } // a piece, and the bottom one is red
+        }
+        return false;
+    }
+
+    /**
+     * Returns the codes of every position (up to mirror images) that can come up in the first
+     * MAX_PLY plies of a game, not counting ones that are already over. The codes are sorted.
+     * Each ply is expanded from the one before it, in parallel.
+     */
+    static long[] enumerate(int maxPly) {
+        long[] level = {BitBoard.BOTTOM_ROW}; // the empty board
+        long[] all = level;
+        for (int ply = 1; ply <= maxPly; ply++) {
+            level = Arrays.stream(level).parallel()
+                    .flatMap(OpeningBook::children)
+                    .distinct()
+                    .toArray();
+            all = LongStream.concat(Arrays.stream(all), Arrays.stream(level)).toArray();
+        }
+        Arrays.parallelSort(all);
+
+        return all;
+    }
+
+    /**
+     * Returns the codes of the positions (up to mirror images) one move on from the position
+     * with the code CODE, leaving out the moves that win (since those end the game).
+     */
+    private static LongStream children(long code) {
+        BitBoard position = decode(code);
+        LongStream.Builder children = LongStream.builder();
+        for (int c = 0; c < BitBoard.WIDTH; c++) {
+            if (!position.canPlay(c)) { continue; }
+
+            position.play(c);
+            if (!position.hasFour(position.getLastMover()) && !position.isFull()) {
+                long child = position.getCode();
+                children.add(Math.min(child, BitBoard.mirror(child)));
+            }
+            position.undo(c);
+        }
+
+        return children.build();
+    }
+
+    /**
+     * Returns a board with the position that has the code CODE.
+     */
+    static BitBoard decode(long code) {
+        BitBoard position = new BitBoard();
+        int numMoves = 0;
+        for (int c = 0; c < BitBoard.WIDTH; c++) {
+            long column = (code >>> (c * BitBoard.H1)) & ((1L << BitBoard.H1) - 1);
+            int height = 63 - Long.numberOfLeadingZeros(column); // the marker bit
+            for (int r = 0; r < height; r++) {
+                position.place((column & (1L << r)) != 0 ? BitBoard.RED : BitBoard.BLACK, r, c);
+            }
+            numMoves += height;
+        }
+        position.setToMove(numMoves % 2 == 0 ? BitBoard.RED : BitBoard.BLACK);
+
+        return position;
+    }
+
+    /**
+     * Solves every position in POSITIONS (by code) that is at most MAX_PLY plies in, in parallel,
+     * each thread with its own solver, and returns the entries for the ones that were solved
+     * within TIME_LIMIT nanoseconds apiece, in order. The plies are solved from the deepest up,
+     * each with a book of everything that's been solved so far.
+     */
+    private static long[] solveAll(long[] positions, int maxPly, long timeLimit) {
+        ThreadLocal<EndgameSolver> solvers =
+                ThreadLocal.withInitial(() -> new EndgameSolver(SOLVER_TABLE_BITS));
+        long[] solved = new long[0];
+        for (int ply = maxPly; ply >= 0; ply--) {
+            int p = ply;
+            long[] level = Arrays.stream(positions).filter(code -> decode(code).getNumMoves() == p).toArray();
+            OpeningBook known = new OpeningBook(LongBuffer.wrap(solved), maxPly);
+            AtomicInteger done = new AtomicInteger();
+            long[] entries = new long[level.length];
+            IntStream.range(0, level.length).parallel().forEach(i -> {
+                EndgameSolver solver = solvers.get();
+                solver.setBook(known);
+                long deadline = (timeLimit == Long.MAX_VALUE) ? Long.MAX_VALUE : System.nanoTime() + timeLimit;
+                if (solver.solveOutcome(decode(level[i]), deadline)) {
+                    entries[i] = (level[i] << CODE_SHIFT)
+                            | ((long) (solver.getScore() + 1) << OUTCOME_SHIFT)
+                            | solver.getBestMove();
+                }
+                int n = done.incrementAndGet();
+                if (n % 1000 == 0) {
+                    System.out.println("ply " + p + ": " + n + " / " + level.length + " solved");
+                }
+            });
+
+            long[] found = Arrays.stream(entries).filter(e -> e != 0).toArray();
+            System.out.println("ply " + p + ": " + found.length + " of " + level.length + " positions solved");
+            solved = LongStream.concat(Arrays.stream(solved), Arrays.stream(found)).toArray();
+            Arrays.parallelSort(solved);
+        }
+
+        return solved;
+    }
+
+    /**
+     * Writes the (sorted) ENTRIES of a book that goes up to MAX_PLY to FILE.
+     */
+    private static void write(File file, long[] entries, int maxPly) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(file)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(maxPly);
+            out.writeInt(entries.length);
+            for (long entry : entries) {
+                out.writeLong(entry);
+            }
+        }
+    }
+}
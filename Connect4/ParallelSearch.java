@@ -0,0 +1,441 @@
+package Connect4;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The AI's depth-limited search, spread over several threads with a ForkJoinPool.
+ * It searches the same way as AI.negamax (the same scores, table, strategy-rule cutoffs
+ * and move ordering), but nodes near the root are split up by the "Young Brothers Wait" rule:
+ * a node's first move (its eldest brother) is searched on its own first, since that's where
+ * most cutoffs come from and it gives the rest of the moves a good window; only then are
+ * the rest of the moves (its younger brothers) handed out as tasks that idle threads can steal.
+ *
+ * The moves at a split share one SplitPoint, which holds the best score found so far
+ * (every task starts from the latest one, so a good result in one task narrows the window
+ * for the tasks that haven't started yet). As soon as one of them reaches beta, the split
+ * point is cancelled, and every task under it (at any depth) gives up at its next node.
+ *
+ * Everything that can be shared is: the transposition table (which must be safe for
+ * concurrent use, like OffHeapTable) and the killer moves and history table (a MoveOrdering),
+ * whose racy updates are harmless since they only ever affect move ordering. Move lists belong
+ * to each task, since a thread that's waiting on one task can pick up another one in the middle
+ * of its own search; so does the scratch space for frontier nodes (see Frontier).
+ * @author Owen Jow
+ */
+public class ParallelSearch {
+    static final int SPLIT_MIN_DEPTH = 6; // nodes any shallower than this are searched serially
+    static final int MAX_SURPLUS_TASKS = 2; // past this many tasks waiting to be stolen, don't split
+    private static final int CLOCK_CHECK_INTERVAL = 1024; // nodes (per task) between looks at the clock
+
+    private final ForkJoinPool pool;
+    private final TranspositionTable table;
+    private final MoveOrdering ordering = new MoveOrdering();
+    private final LongAdder nodesSearched = new LongAdder();
+    private volatile long deadline; // in System.nanoTime() terms
+    private volatile boolean timeUp;
+    private int bestMove; // the best move found by the last call to searchRoot
+
+    /**
+     * Constructs a search that runs on THREADS threads and shares TABLE between them.
+     */
+    public ParallelSearch(TranspositionTable table, int threads) {
+        this.table = table;
+        pool = new ForkJoinPool(threads);
+    }
+
+    /**
+     * Returns the number of threads the search runs on.
+     */
+    public int getThreads() {
+        return pool.getParallelism();
+    }
+
+    /**
+     * Sets the System.nanoTime() value at which searches give up, and starts counting nodes over.
+     */
+    void startSearch(long deadline) {
+        this.deadline = deadline;
+        timeUp = false;
+        nodesSearched.reset();
+        ordering.age();
+    }
+
+    /**
+     * Returns true if the deadline passed during the last search (so its result is meaningless).
+     */
+    boolean isTimeUp() {
+        return timeUp;
+    }
+
+    /**
+     * Returns the number of positions visited since startSearch.
+     */
+    long getNodesSearched() {
+        return nodesSearched.sum();
+    }
+
+    /**
+     * Returns the best move found by the last call to searchRoot.
+     */
+    int getBestMove() {
+        return bestMove;
+    }
+
+    /**
+     * Searches every move from POSITION to depth DEPTH within the window (ALPHA, BETA),
+     * trying FIRST_MOVE first, and returns the score of the best one (which getBestMove returns).
+     * POSITION must have an evaluator attached; it's left as it was.
+     */
+    int searchRoot(BitBoard position, int depth, int alpha, int beta, int firstMove) {
+        Node root = new Node(position, depth, alpha, beta, null);
+        root.firstMove = firstMove;
+        root.isRoot = true;
+        pool.invoke(root);
+
+        bestMove = root.bestMove;
+        return root.score;
+    }
+
+    /**
+     * Stops the threads. The search can't be used afterward.
+     */
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    /**
+     * The moves of one node that are being searched at the same time. Cancelling a split point
+     * cancels everything under it as well.
+     */
+    private static class SplitPoint {
+        final SplitPoint parent;
+        final int beta;
+        volatile boolean cancelled;
+        int alpha, best, bestMove; // guarded by this
+
+        SplitPoint(SplitPoint parent, int alpha, int beta) {
+            this.parent = parent;
+            this.alpha = alpha;
+            this.beta = beta;
+            best = -AI.MAX_SCORE;
+            bestMove = TranspositionTable.NO_MOVE;
+        }
+
+        /**
+         * Returns true if this split point, or any split point above it, has been cancelled.
+         */
+        boolean isCancelled() {
+            for (SplitPoint sp = this; sp != null; sp = sp.parent) {
+                if (sp.cancelled) { return true; }
+            }
+            return false;
+        }
+
+        synchronized int getAlpha() {
+            return alpha;
+        }
+
+        /**
+         * Records that COL scored SCORE, and cancels the rest of the moves if that's a cutoff.
+         */
+        synchronized void report(int col, int score) {
+            if (score > best) {
+                best = score;
+                if (score > alpha) {
+                    alpha = score;
+                    bestMove = col;
+                }
+            }
+            if (alpha >= beta) {
+                cancelled = true;
+            }
+        }
+    }
+
+    /**
+     * A search of one position, which may split its own moves up into more tasks.
+     */
+    private class Node extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        final BitBoard board; // this task's own copy, with an evaluator
+        final int depth, alpha, beta;
+        final SplitPoint split; // the split point this task is under, or null
+        final int[][] moveLists; // indexed by the depth left
+        final int[] moveKeys = new int[BitBoard.WIDTH];
+        final Frontier frontier = new Frontier();
+        int firstMove = TranspositionTable.NO_MOVE;
+        boolean isRoot;
+        long nodes, nextClockCheck = CLOCK_CHECK_INTERVAL;
+        int score, bestMove = TranspositionTable.NO_MOVE;
+
+        Node(BitBoard position, int depth, int alpha, int beta, SplitPoint split) {
+            board = new BitBoard(position);
+            board.attachEvaluator();
+            moveLists = new int[depth + 1][BitBoard.WIDTH];
+            this.depth = depth;
+            this.alpha = alpha;
+            this.beta = beta;
+            this.split = split;
+        }
+
+        @Override
+        protected void compute() {
+            score = isRoot ? searchRoot() : negamax(depth, alpha, beta, split);
+            nodesSearched.add(nodes);
+        }
+
+        /**
+         * Returns true if this task's result isn't needed anymore.
+         */
+        boolean stopped(SplitPoint sp) {
+            return timeUp || (sp != null && sp.isCancelled());
+        }
+
+        /**
+         * Returns true if a node with DEPTH turns left to search should hand out its younger
+         * brothers as tasks: only if there's enough left to be worth a task, and the other threads
+         * don't already have plenty of tasks to steal.
+         */
+        private boolean shouldSplit(int depth) {
+            return depth >= SPLIT_MIN_DEPTH && getSurplusQueuedTaskCount() <= MAX_SURPLUS_TASKS;
+        }
+
+        /**
+         * Counts N nodes, and looks at the clock every so often.
+         */
+        private void countNodes(int n) {
+            nodes += n;
+            if (nodes >= nextClockCheck) {
+                nextClockCheck = nodes + CLOCK_CHECK_INTERVAL;
+                if (System.nanoTime() > deadline) {
+                    timeUp = true;
+                }
+            }
+        }
+
+        /**
+         * Searches the root's moves, as AI.searchRoot does, and leaves the best one in bestMove.
+         */
+        private int searchRoot() {
+            long allowed = board.nonLosingMoves();
+            if (allowed == 0) {
+                allowed = board.possibleMoves(); // we've lost, but we'll still put up a fight
+            }
+            allowed = board.dropMirroredMoves(allowed);
+            int[] moves = moveLists[depth];
+            int n = ordering.orderMoves(board, firstMove, allowed, moves, moveKeys);
+            SplitPoint sp = new SplitPoint(null, alpha, beta);
+            searchMoves(moves, n, depth, sp);
+            if (timeUp) { return sp.best; }
+
+            bestMove = sp.bestMove;
+            if (bestMove == TranspositionTable.NO_MOVE) {
+                bestMove = moves[0]; // everything failed low; the move we'd have tried first will do
+            }
+            int bound = (sp.best <= alpha) ? TranspositionTable.UPPER
+                    : (sp.best >= beta) ? TranspositionTable.LOWER : TranspositionTable.EXACT;
+            table.store(board.getKey(), sp.best, depth, bound, board.canonicalMove(sp.bestMove));
+            return sp.best;
+        }
+
+        /**
+         * Searches the first N moves in MOVES to depth DEPTH - 1, reporting each result to SP:
+         * the first on its own, and the rest as tasks of their own, if there's enough depth left
+         * to make that worthwhile.
+         */
+        private void searchMoves(int[] moves, int n, int depth, SplitPoint sp) {
+            board.play(moves[0]);
+            int first = -negamax(depth - 1, -sp.beta, -sp.getAlpha(), sp);
+            board.undo(moves[0]);
+            if (stopped(sp.parent)) { return; }
+            sp.report(moves[0], first);
+            if (sp.cancelled || n == 1) { return; }
+
+            if (!shouldSplit(depth)) {
+                for (int i = 1; i < n && !sp.cancelled; i++) {
+                    board.play(moves[i]);
+                    int s = searchSibling(depth - 1, sp);
+                    board.undo(moves[i]);
+                    if (stopped(sp.parent)) { return; }
+                    sp.report(moves[i], s);
+                }
+                return;
+            }
+
+            // The younger brothers can go now
+            Sibling[] siblings = new Sibling[n - 1];
+            for (int i = 1; i < n; i++) {
+                board.play(moves[i]);
+                siblings[i - 1] = new Sibling(board, moves[i], depth - 1, sp);
+                board.undo(moves[i]);
+            }
+            invokeAll(siblings);
+        }
+
+        /**
+         * Searches the move that has just been played on board, as a younger brother under SP:
+         * with a zero-width window at SP's alpha first, and then with the full window if it's
+         * better than that. Returns its score for the player who played it.
+         */
+        int searchSibling(int depth, SplitPoint sp) {
+            int a = sp.getAlpha();
+            int s = -negamax(depth, -a - 1, -a, sp);
+            if (s > a && s < sp.beta && !stopped(sp)) {
+                s = -negamax(depth, -sp.beta, -sp.getAlpha(), sp);
+            }
+            return s;
+        }
+
+        /**
+         * Does what AI.negamax does for board (to depth DEPTH, within (ALPHA, BETA)), giving up
+         * if SP is cancelled. Nodes deep enough are split up.
+         */
+        int negamax(int depth, int alpha, int beta, SplitPoint sp) {
+            countNodes(1);
+            if (stopped(sp)) { return 0; } // the result will be thrown away anyway
+
+            Evaluator evaluator = board.getEvaluator();
+            if (board.isFull() || !evaluator.canAnyoneWin()) {
+                return 0;
+            } else if (board.winningMoves() != 0) {
+                return AI.winScore(board.getNumMoves() + 1);
+            }
+            long allowed = board.nonLosingMoves();
+            if (allowed == 0) {
+                return -AI.winScore(board.getNumMoves() + 2);
+            } else if (depth == 0) {
+                return evaluator.getScore(board.getToMove());
+            }
+
+            long key = board.getKey();
+            long entry = table.probe(key);
+            int ttMove = TranspositionTable.NO_MOVE;
+            if (entry != 0) {
+                ttMove = board.canonicalMove(TranspositionTable.getMove(entry));
+                if (TranspositionTable.getDepth(entry) >= depth) {
+                    int score = TranspositionTable.getScore(entry);
+                    switch (TranspositionTable.getBound(entry)) {
+                        case TranspositionTable.EXACT:
+                            return score;
+                        case TranspositionTable.LOWER:
+                            alpha = Math.max(alpha, score);
+                            break;
+                        default:
+                            beta = Math.min(beta, score);
+                    }
+                    if (beta <= alpha) { return score; }
+                }
+            }
+
+            if (depth >= AI.STATIC_SOLVER_MIN_DEPTH && alpha >= -AI.INFINITY) {
+                int result = StaticSolver.solve(board);
+                if (result == StaticSolver.LOSS) {
+                    return -AI.INFINITY;
+                } else if (result == StaticSolver.NO_WIN && alpha >= 0) {
+                    return 0;
+                }
+            }
+
+            allowed = board.dropMirroredMoves(allowed);
+            if (depth == 1) {
+                return searchFrontier(key, allowed, alpha, beta);
+            }
+            int[] moves = moveLists[depth];
+            int n = ordering.orderMoves(board, ttMove, allowed, moves, moveKeys);
+            int best, bestMove;
+            if (n > 1 && shouldSplit(depth)) {
+                SplitPoint child = new SplitPoint(sp, alpha, beta);
+                searchMoves(moves, n, depth, child);
+                if (stopped(sp)) { return 0; }
+                best = child.best;
+                bestMove = child.bestMove;
+            } else {
+                int a = alpha;
+                best = -AI.MAX_SCORE;
+                bestMove = TranspositionTable.NO_MOVE;
+                for (int i = 0; i < n; i++) {
+                    int c = moves[i];
+                    board.play(c);
+                    int score;
+                    if (i == 0) {
+                        score = -negamax(depth - 1, -beta, -a, sp);
+                    } else {
+                        score = -negamax(depth - 1, -a - 1, -a, sp);
+                        if (score > a && score < beta) {
+                            score = -negamax(depth - 1, -beta, -a, sp);
+                        }
+                    }
+                    board.undo(c);
+                    if (stopped(sp)) { return 0; }
+
+                    if (score > best) {
+                        best = score;
+                        if (score > a) {
+                            a = score;
+                            bestMove = c;
+                        }
+                    }
+                    if (a >= beta) {
+                        ordering.recordCutoff(board, c, depth);
+                        break;
+                    }
+                }
+            }
+
+            int bound = (best <= alpha) ? TranspositionTable.UPPER
+                    : (best >= beta) ? TranspositionTable.LOWER : TranspositionTable.EXACT;
+            table.store(key, best, depth, bound, board.canonicalMove(bestMove));
+            return best;
+        }
+
+        /**
+         * Does what AI.searchFrontier does for board (at depth 1, with the table key KEY and
+         * the moves ALLOWED, within (ALPHA, BETA)).
+         */
+        private int searchFrontier(long key, long allowed, int alpha, int beta) {
+            int best = frontier.search(board, allowed, beta);
+            countNodes(frontier.getNumSearched());
+            if (timeUp) { return 0; }
+
+            int bestMove = frontier.getBestMove();
+            if (best >= beta) {
+                ordering.recordCutoff(board, bestMove, 1);
+            } else if (best <= alpha) {
+                bestMove = TranspositionTable.NO_MOVE;
+            }
+            int bound = (best <= alpha) ? TranspositionTable.UPPER
+                    : (best >= beta) ? TranspositionTable.LOWER : TranspositionTable.EXACT;
+            table.store(key, best, 1, bound, board.canonicalMove(bestMove));
+            return best;
+        }
+    }
+
+    /**
+     * A younger brother: one of a split node's moves (already played on the board it's given),
+     * searched as a task of its own and reported to the split point.
+     */
+    private class Sibling extends Node {
+        private static final long serialVersionUID = 1L;
+
+        private final int col;
+
+        Sibling(BitBoard position, int col, int depth, SplitPoint sp) {
+            super(position, depth, 0, 0, sp);
+            this.col = col;
+        }
+
+        @Override
+        protected void compute() {
+            if (!stopped(split)) {
+                int s = searchSibling(depth, split);
+                if (!stopped(split)) { // once there's been a cutoff, the rest don't matter
+                    split.report(col, s);
+                }
+            }
+            nodesSearched.add(nodes);
+        }
+    }
+}
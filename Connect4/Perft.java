@@ -0,0 +1,271 @@
+package Connect4;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts everything that can happen in the first few plies of a game: the number of move
+ * sequences of each length ("perft", as chess programmers call it) and the number of distinct
+ * positions they lead to. It works on any GameState, so it covers every variant: regular
+ * Connect Four, Four by Two (two drops a turn), Removal (where pieces can be taken out, and
+ * the ones above them fall) and Warfare (four players on a big board without gravity).
+ *
+ * It has two uses. The counts for a variant only change if its rules do, so running it before
+ * and after a change to the move generation shows whether that change broke anything (for
+ * regular Connect Four, the position counts are the well-known ones: 7, 49, 238, 1120, ...).
+ * The "reguboard" and "removalboard" variants play regular Connect Four and Removal on the
+ * boards the game itself uses (see BoardState), so their counts check the board classes against
+ * the bitboard ones; with -check, every variant that has something to be checked against is,
+ * and a mismatch is an error. And since it does little besides generate and play moves,
+ * its speed is a benchmark for that.
+ *
+ * The tree is walked with fork/join: the first SPLIT_PLIES plies fan out into tasks, and
+ * the rest of each subtree is walked on whatever thread picked it up. Positions are told apart
+ * by GameState.getHash, in one concurrent hash set per ply. (Games that are over are counted,
+ * but not played on from.)
+ * @author Owen Jow
+ */
+public class Perft {
+    static final int SPLIT_PLIES = 3; // plies that are split into separate tasks
+    static final String[] VARIANTS = {"regular", "fourbytwo", "removal", "warfare", "reguboard", "removalboard"};
+    // The number of distinct positions after each ply of regular Connect Four (OEIS A212693)
+    static final long[] REGULAR_POSITIONS = {1, 7, 49, 238, 1120, 4263, 16422, 54859, 184275};
+
+    private final int depth;
+    private final LongAdder[] nodes; // move sequences of each length
+    private final List<Set<Long>> positions; // distinct positions at each ply (if they're being counted)
+
+    /**
+     * Sets up a count to DEPTH plies, keeping track of distinct positions if DEDUPE is true.
+     */
+    Perft(int depth, boolean dedupe) {
+        this.depth = depth;
+        nodes = new LongAdder[depth + 1];
+        positions = dedupe ? new ArrayList<>(depth + 1) : null;
+        for (int ply = 0; ply <= depth; ply++) {
+            nodes[ply] = new LongAdder();
+            if (dedupe) {
+                positions.add(ConcurrentHashMap.newKeySet());
+            }
+        }
+    }
+
+    /**
+     * Returns the starting position of the variant named NAME (one of VARIANTS).
+     */
+    static GameState startingPosition(String name) {
+        switch (name) {
+            case "regular":
+                return new ReguState(new BitBoard());
+            case "fourbytwo":
+                return new FourByTwoState();
+            case "removal":
+                return new RemovalState(new BitBoard());
+            case "warfare":
+                return new WarfareState();
+            case "reguboard":
+                return new BoardState(false);
+            case "removalboard":
+                return new BoardState(true);
+            default:
+                throw new IllegalArgumentException("Not a variant: " + name);
+        }
+    }
+
+    /**
+     * Counts everything from ROOT on POOL, and returns the total number of positions visited.
+     */
+    long run(GameState root, ForkJoinPool pool) {
+        pool.invoke(new Walk(root, 0));
+        long total = 0;
+        for (LongAdder n : nodes) {
+            total += n.sum();
+        }
+        return total;
+    }
+
+    /**
+     * Returns the number of move sequences of length PLY.
+     */
+    long getNodes(int ply) {
+        return nodes[ply].sum();
+    }
+
+    /**
+     * Returns the number of distinct positions after PLY plies (or -1 if they weren't counted).
+     */
+    long getPositions(int ply) {
+        return (positions == null) ? -1 : positions.get(ply).size();
+    }
+
+    /**
+     * Counts STATE (which is PLY plies in) and everything under it.
+     */
+    private void walk(GameState state, int ply, int[][] moveLists) {
+        count(state, ply);
+        if (ply == depth || state.isOver()) { return; }
+
+        int[] moves = moveLists[ply];
+        int n = state.getMoves(moves);
+        for (int i = 0; i < n; i++) {
+            GameState child = state.copy();
+            child.play(moves[i]);
+            walk(child, ply + 1, moveLists);
+        }
+    }
+
+    private void count(GameState state, int ply) {
+        nodes[ply].increment();
+        if (positions != null) {
+            positions.get(ply).add(state.getHash());
+        }
+    }
+
+    /**
+     * The task for one position in the first SPLIT_PLIES plies: it counts the position, and
+     * forks a task for each child (or, past the split, walks the rest of the subtree itself).
+     */
+    private final class Walk extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final GameState state;
+        private final int ply;
+
+        Walk(GameState state, int ply) {
+            this.state = state;
+            this.ply = ply;
+        }
+
+        @Override
+        protected void compute() {
+            int[][] moveLists = new int[depth + 1][state.getMaxMoves()];
+            if (ply >= SPLIT_PLIES) {
+                walk(state, ply, moveLists);
+                return;
+            }
+
+            count(state, ply);
+            if (ply == depth || state.isOver()) { return; }
+
+            int n = state.getMoves(moveLists[ply]);
+            Walk[] children = new Walk[n];
+            for (int i = 0; i < n; i++) {
+                GameState child = state.copy();
+                child.play(moveLists[ply][i]);
+                children[i] = new Walk(child, ply + 1);
+            }
+            invokeAll(children);
+        }
+    }
+
+    /**
+     * Returns the first ply at which PERFT's counts differ from EXPECTED's (or from
+     * REGULAR_POSITIONS, if EXPECTED is null), or -1 if they're all the same.
+     */
+    private static int firstMismatch(Perft perft, Perft expected) {
+        for (int ply = 0; ply <= perft.depth; ply++) {
+            if (expected == null) {
+                if (ply < REGULAR_POSITIONS.length && perft.getPositions(ply) != REGULAR_POSITIONS[ply]) {
+                    return ply;
+                }
+            } else if (perft.getNodes(ply) != expected.getNodes(ply)
+                    || perft.getPositions(ply) != expected.getPositions(ply)) {
+                return ply;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Runs perft to a depth for some or all of the variants, and prints the counts for each ply
+     * along with how fast it went: java Connect4.Perft DEPTH [VARIANT ...] [-threads N] [-nodedupe]
+     * [-check]. Without -nodedupe, the distinct positions at every ply are kept in memory, which
+     * limits how deep it can go (Warfare especially). With -check, "regular" and "reguboard" are
+     * checked against REGULAR_POSITIONS, and "reguboard" and "removalboard" against "regular" and
+     * "removal" (which are run for that if they weren't asked for); if anything doesn't match,
+     * the exit status is 1.
+     */
+    public static void main(String[] args) {
+        if (args.length < 1) {
+            System.err.println("Usage: java Connect4.Perft DEPTH [VARIANT ...] [-threads N] [-nodedupe] [-check]");
+            System.err.println("Variants: " + String.join(", ", VARIANTS));
+            System.exit(1);
+        }
+        int depth = Integer.parseInt(args[0]);
+        int threads = Runtime.getRuntime().availableProcessors();
+        boolean dedupe = true, check = false;
+        List<String> variants = new ArrayList<>();
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("-threads")) {
+                threads = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-nodedupe")) {
+                dedupe = false;
+            } else if (args[i].equals("-check")) {
+                check = true;
+            } else {
+                variants.add(args[i]);
+            }
+        }
+        if (variants.isEmpty()) {
+            variants.addAll(Arrays.asList(VARIANTS));
+        }
+        if (check) {
+            dedupe = true; // the known counts are of positions
+            for (String bitboards : new String[] {"removal", "regular"}) {
+                if (!variants.contains(bitboards)) {
+                    variants.add(0, bitboards); // the board variants are checked against these
+                }
+            }
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        Map<String, Perft> results = new HashMap<>();
+        boolean failed = false;
+        for (String variant : variants) {
+            Perft perft = new Perft(depth, dedupe);
+            long start = System.nanoTime();
+            long total = perft.run(startingPosition(variant), pool);
+            double seconds = (System.nanoTime() - start) / 1e9;
+            results.put(variant, perft);
+
+            System.out.println(variant + ":");
+            for (int ply = 0; ply <= depth; ply++) {
+                System.out.printf("  %2d  %,18d sequences  %s%n", ply, perft.getNodes(ply),
+                        dedupe ? String.format("%,15d positions", perft.getPositions(ply)) : "");
+            }
+            System.out.printf("  %,d nodes in %.2f s (%,.0f nodes/s, %d threads)%n",
+                    total, seconds, total / seconds, threads);
+
+            if (check) {
+                int ply = -1;
+                String against = null;
+                if (variant.equals("regular") || variant.equals("reguboard")) {
+                    ply = firstMismatch(perft, null);
+                    against = "the known position counts";
+                }
+                if (ply < 0 && variant.endsWith("board")) {
+                    against = variant.equals("reguboard") ? "regular" : "removal";
+                    ply = firstMismatch(perft, results.get(against));
+                }
+                if (ply >= 0) {
+                    System.out.println("  MISMATCH with " + against + " at ply " + ply);
+                    failed = true;
+                } else if (against != null) {
+                    System.out.println("  checked");
+                }
+            }
+        }
+        pool.shutdown();
+        if (failed) {
+            System.exit(1);
+        }
+    }
+}
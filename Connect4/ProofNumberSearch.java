@@ -0,0 +1,333 @@
+package Connect4;
+
+/**
+ * A depth-first proof-number (df-pn) solver, for proving long forced wins that a depth-limited
+ * search can't see to the end of. Rather than going a fixed number of moves deep, it always
+ * works on whichever position looks easiest to settle: the one whose proof (or disproof)
+ * needs the fewest more positions to be settled, going by the "proof number" and
+ * "disproof number" that every position keeps.
+ *
+ * A search proves or disproves one thing: that a particular player (the "attacker") wins.
+ * solve does this once for each player, which is enough to tell a win from a draw from a loss.
+ * Each position's numbers are kept from the point of view of the player to move there
+ * (phi is the number for the thing that player wants, and delta is the other one), so the same
+ * code works on both players' moves. Moves that lose on the spot aren't even considered,
+ * and the static solver's rules settle a lot of positions without any searching.
+ *
+ * Everything lives in a fixed-size table (of however much memory it's given), and a search
+ * gives up after a certain number of positions, or at a deadline, so it never takes more than
+ * it's allowed. Whatever it has worked out stays in the table for the next search.
+ * @author Owen Jow
+ */
+public class ProofNumberSearch {
+    static final int INFINITY = 1 << 30; // a proof or disproof number that can never be reached
+    private static final int CLOCK_CHECK_INTERVAL = 1024; // positions between looks at the clock
+    private static final int STATIC_SOLVER_MIN_EMPTY = 8; // the rules aren't worth trying below this
+    private static final long KEY_MULTIPLIER = 0x9E3779B97F4A7C15L; // spreads keys over the table
+    private static final long ATTACKER_KEY = 0x5DEECE66DL; // told apart from the other attacker's entries
+    private static final int SLOT_BYTES = 16; // key + entry
+
+    private final long[] keys, entries; // each entry is [ phi : 32 | delta : 32 ]
+    private final int indexMask;
+    private final int[][] moveLists = new int[BitBoard.SIZE + 1][BitBoard.WIDTH];
+    private final int[][] phis = new int[BitBoard.SIZE + 1][BitBoard.WIDTH];
+    private final int[][] deltas = new int[BitBoard.SIZE + 1][BitBoard.WIDTH];
+    private long nodesSearched, maxNodes, deadline;
+    private boolean aborted;
+    private int rootMoves; // the number of moves played in the position being searched
+    private int bestMove; // the root move that settles the search in the mover's favor, if one has
+
+    /**
+     * Constructs a solver whose table uses (at most) MEMORY_BYTES bytes.
+     */
+    public ProofNumberSearch(long memoryBytes) {
+        int slots = (int) Math.min(1 << 30, Long.highestOneBit(Math.max(memoryBytes / SLOT_BYTES, 2)));
+        keys = new long[slots];
+        entries = new long[slots];
+        indexMask = slots - 1;
+    }
+
+    /**
+     * Forgets everything that has been worked out so far.
+     */
+    public void clear() {
+        java.util.Arrays.fill(keys, 0);
+        java.util.Arrays.fill(entries, 0);
+    }
+
+    /**
+     * Solves BOARD (in which nobody has won yet), looking at no more than MAX_NODES positions.
+     * Returns ColumnResult.WIN, DRAW or LOSS (for the player to move) if it managed to prove it,
+     * and ColumnResult.UNKNOWN if it ran out of positions first.
+     */
+    public int solve(ReguBoard board, long maxNodes) {
+        return solve(board.toBitBoard(), maxNodes, Long.MAX_VALUE);
+    }
+
+    /**
+     * Solves POSITION, as solve(ReguBoard, long) does, but also gives up at the System.nanoTime()
+     * value DEADLINE. Unless the result is UNKNOWN, getBestMove gives a move that keeps it
+     * (for a win, a move that wins; for a draw, a move that doesn't lose).
+     */
+    public int solve(BitBoard position, long maxNodes, long deadline) {
+        nodesSearched = 0;
+        long result = search(position, maxNodes, deadline, true);
+        if (phi(result) == 0) {
+            return ColumnResult.WIN;
+        } else if (delta(result) != 0) {
+            return ColumnResult.UNKNOWN; // we ran out before finding out whether we can win
+        }
+
+        // We can't win, so the question is whether we can hold the other player to a draw
+        result = search(position, maxNodes, deadline, false);
+        if (delta(result) == 0) {
+            long possible = position.possibleMoves();
+            for (int c : AI.SELECTION_ORDER) {
+                if ((possible & BitBoard.columnMask(c)) != 0) {
+                    bestMove = c; // we're lost, so anything will do
+                    break;
+                }
+            }
+            return ColumnResult.LOSS;
+        }
+        return (phi(result) == 0) ? ColumnResult.DRAW : ColumnResult.UNKNOWN;
+    }
+
+    /**
+     * Tries to prove that the player to move in POSITION wins, looking at no more than
+     * MAX_NODES positions and giving up at DEADLINE. Returns true if it did, in which case
+     * getBestMove gives the winning move (and otherwise NO_MOVE).
+     */
+    public boolean proveWin(BitBoard position, long maxNodes, long deadline) {
+        nodesSearched = 0;
+        search(position, maxNodes, deadline, true);
+        return bestMove != TranspositionTable.NO_MOVE;
+    }
+
+    /**
+     * Tries to prove that the player to move in POSITION wins (if MOVER_ATTACKS is true) or that
+     * the other player does, and returns the position's numbers. Afterward, bestMove is the move
+     * the player to move should make if that player's side was proven (the winning move, or one
+     * that holds off the other player), and NO_MOVE otherwise. It's the move that mid proved it
+     * with, not something looked up afterward, since the table may no longer hold the proof.
+     */
+    private long search(BitBoard position, long maxNodes, long deadline, boolean moverAttacks) {
+        this.maxNodes = nodesSearched + maxNodes;
+        this.deadline = deadline;
+        aborted = false;
+
+        long pieces = position.getPieces(position.getToMove()), mask = position.getMask();
+        int numMoves = position.getNumMoves();
+        rootMoves = numMoves;
+        bestMove = TranspositionTable.NO_MOVE;
+        long result = mid(pieces, mask, numMoves, moverAttacks, INFINITY, INFINITY);
+        if (phi(result) != 0) {
+            bestMove = TranspositionTable.NO_MOVE;
+        } else if (bestMove == TranspositionTable.NO_MOVE) {
+            // Settled without looking at the children: a win on the spot, or a board that fills up
+            // before anybody can connect four (so any move that doesn't lose right away will do)
+            long possible = BitBoard.possibleMoves(mask);
+            long wins = BitBoard.winningSquares(pieces, mask) & possible;
+            long allowed = BitBoard.nonLosingMoves(possible, BitBoard.winningSquares(pieces ^ mask, mask));
+            long moves = (wins != 0) ? wins : allowed;
+            if (moves != 0) {
+                bestMove = BitBoard.columnOf(Long.lowestOneBit(moves));
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Returns the move found by the last successful call to solve or proveWin.
+     */
+    public int getBestMove() {
+        return bestMove;
+    }
+
+    /**
+     * Returns the number of positions visited by the last call to solve or proveWin.
+     */
+    public long getNodesSearched() {
+        return nodesSearched;
+    }
+
+    //================================================================================
+    // The search
+    //================================================================================
+
+    /**
+     * Works on the position in which the player to move has the pieces PIECES, MASK is the set
+     * of occupied squares and NUM_MOVES moves have been played, until its phi reaches TH_PHI or
+     * its delta reaches TH_DELTA (or the search has to give up). MOVER_ATTACKS says whether
+     * the player to move is the attacker. Returns the position's numbers, packed as in the table.
+     */
+    private long mid(long pieces, long mask, int numMoves, boolean moverAttacks, int thPhi, int thDelta) {
+        if (++nodesSearched >= maxNodes
+                || (nodesSearched % CLOCK_CHECK_INTERVAL == 0 && System.nanoTime() > deadline)) {
+            aborted = true;
+        }
+
+        long terminal = evaluate(pieces, mask, numMoves, moverAttacks, true);
+        if (terminal != 0) {
+            store(pieces, mask, moverAttacks, terminal);
+            return terminal;
+        }
+
+        // Set up the children, with whatever is already known about them
+        long possible = BitBoard.possibleMoves(mask);
+        long allowed = BitBoard.nonLosingMoves(possible, BitBoard.winningSquares(pieces ^ mask, mask));
+        int[] moves = moveLists[numMoves], childPhis = phis[numMoves], childDeltas = deltas[numMoves];
+        int n = 0;
+        for (int c : AI.SELECTION_ORDER) {
+            long b = allowed & BitBoard.columnMask(c);
+            if (b == 0) { continue; }
+
+            long child = probe(pieces ^ mask, mask | b, !moverAttacks);
+            if (child == 0) {
+                child = evaluate(pieces ^ mask, mask | b, numMoves + 1, !moverAttacks, false);
+            }
+            moves[n] = c;
+            childPhis[n] = (child == 0) ? 1 : phi(child);
+            childDeltas[n] = (child == 0) ? 1 : delta(child);
+            n++;
+        }
+
+        long result;
+        while (true) {
+            // Our phi is the smallest of the children's deltas (we only need one of them to work
+            // out), and our delta is the sum of their phis (we'd need them all to fail)
+            int phi = INFINITY, delta = 0, best = 0, secondDelta = INFINITY;
+            for (int i = 0; i < n; i++) {
+                // (A sum only reaches infinity if one of the children's phis does)
+                delta = (delta == INFINITY || childPhis[i] == INFINITY) ? INFINITY
+                        : Math.min(INFINITY - 1, delta + childPhis[i]);
+                if (childDeltas[i] < phi) {
+                    secondDelta = phi;
+                    phi = childDeltas[i];
+                    best = i;
+                } else if (childDeltas[i] < secondDelta) {
+                    secondDelta = childDeltas[i];
+                }
+            }
+            result = pack(phi, delta);
+            if (phi == 0 && numMoves == rootMoves) {
+                bestMove = moves[best]; // the child that proves the root
+            }
+            if (phi >= thPhi || delta >= thDelta || aborted) { break; }
+
+            // Work on the most promising child until it's no longer the most promising
+            int childThPhi = (int) Math.min(INFINITY, (long) thDelta - delta + childPhis[best]);
+            int childThDelta = (int) Math.min(thPhi, (long) secondDelta + 1);
+            long b = possible & BitBoard.columnMask(moves[best]);
+            long child = mid(pieces ^ mask, mask | b, numMoves + 1, !moverAttacks, childThPhi, childThDelta);
+            childPhis[best] = phi(child);
+            childDeltas[best] = delta(child);
+        }
+
+        store(pieces, mask, moverAttacks, result);
+        return result;
+    }
+
+    /**
+     * Returns the numbers of the position (given as in mid) if it can be settled without
+     * searching, and 0 otherwise. The static solver is only tried if RULES is true
+     * (it's too slow to run on every child when they're first generated).
+     */
+    private static long evaluate(long pieces, long mask, int numMoves, boolean moverAttacks, boolean rules) {
+        long possible = BitBoard.possibleMoves(mask);
+        if ((BitBoard.winningSquares(pieces, mask) & possible) != 0) {
+            return pack(0, INFINITY); // the player to move wins right away
+        }
+        long allowed = BitBoard.nonLosingMoves(possible, BitBoard.winningSquares(pieces ^ mask, mask));
+        if (allowed == 0) {
+            return pack(INFINITY, 0); // the other player wins on the next move
+        } else if (numMoves >= BitBoard.SIZE - 2) {
+            return drawn(moverAttacks); // the board fills up before anybody can connect four
+        }
+
+        if (rules && BitBoard.SIZE - numMoves >= STATIC_SOLVER_MIN_EMPTY) {
+            int result = StaticSolver.solve(pieces, mask);
+            if (result == StaticSolver.LOSS) {
+                return pack(INFINITY, 0);
+            } else if (result == StaticSolver.NO_WIN && moverAttacks) {
+                return pack(INFINITY, 0); // the attacker can't win here, which is all that matters
+            }
+        }
+
+        return 0;
+    }
+
+    /**
+     * Returns the numbers of a drawn position: a failure for the attacker,
+     * and so a success for the defender.
+     */
+    private static long drawn(boolean moverAttacks) {
+        return moverAttacks ? pack(INFINITY, 0) : pack(0, INFINITY);
+    }
+
+    //================================================================================
+    // The table
+    //================================================================================
+
+    private static long pack(int phi, int delta) {
+        return ((long) phi << 32) | delta;
+    }
+
+    private static int phi(long entry) {
+        return (int) (entry >>> 32);
+    }
+
+    private static int delta(long entry) {
+        return (int) entry;
+    }
+
+    /**
+     * Returns the table key for a position (given as in mid). It's the same for mirror images.
+     */
+    private static long key(long pieces, long mask, boolean moverAttacks) {
+        long code = pieces + mask + BitBoard.BOTTOM_ROW;
+        long key = Math.min(code, BitBoard.mirror(code)) * KEY_MULTIPLIER;
+        return moverAttacks ? key : key ^ ATTACKER_KEY;
+    }
+
+    /**
+     * Returns the stored numbers for a position, or 0 if there aren't any.
+     * Each key can go in either of two neighboring slots.
+     */
+    private long probe(long pieces, long mask, boolean moverAttacks) {
+        long key = key(pieces, mask, moverAttacks);
+        int i = (int) (key ^ (key >>> 32)) & indexMask;
+        if (keys[i] == key) {
+            return entries[i];
+        }
+        return (keys[i ^ 1] == key) ? entries[i ^ 1] : 0;
+    }
+
+    /**
+     * Stores ENTRY for a position. Settled positions are kept in preference to unsettled ones,
+     * and otherwise the entry with the smaller numbers (the one that's cheaper to work out
+     * again) is the one that's replaced.
+     */
+    private void store(long pieces, long mask, boolean moverAttacks, long entry) {
+        long key = key(pieces, mask, moverAttacks);
+        int i = (int) (key ^ (key >>> 32)) & indexMask;
+        if (keys[i] != key && (keys[i ^ 1] == key || worth(entries[i ^ 1]) < worth(entries[i]))) {
+            i ^= 1;
+        }
+        keys[i] = key;
+        entries[i] = entry;
+    }
+
+    /**
+     * Returns how much an entry is worth keeping around.
+     */
+    private static long worth(long entry) {
+        if (entry == 0) {
+            return -1; // an empty slot
+        } else if (phi(entry) == 0 || delta(entry) == 0) {
+            return Long.MAX_VALUE; // a settled position
+        }
+        return (long) phi(entry) + delta(entry);
+    }
+}
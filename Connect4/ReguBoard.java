@@ -27,7 +27,40 @@ public class ReguBoard extends Board {
         this.currColor = currColor;
         interactivePiece = new Piece(currColor, MouseData.x - Piece.REG_WIDTH / 2);
     }
-    
+
+    /**
+     * Initializes the board so that it matches the bitboard POSITION.
+     * Pieces are created in their final positions (i.e. they are immobile).
+     */
+    public ReguBoard(BitBoard position) {
+        this(new Piece[BitBoard.HEIGHT][BitBoard.WIDTH], position.getNumMoves(),
+                BitBoard.colorOf(position.getToMove()));
+        for (int c = 0; c < BitBoard.WIDTH; c++) {
+            for (int r = 0; r < position.getHeight(c); r++) {
+                int row = BitBoard.HEIGHT - 1 - r; // bitboard rows count up from the bottom
+                Piece p = new Piece(BitBoard.colorOf(position.cell(r, c)), c, row);
+                p.setXY(leftOffset + c * squareWidth + 2, topOffset + row * squareWidth);
+                board[row][c] = p;
+            }
+        }
+    }
+
+    /**
+     * Returns a bitboard copy of this board, which is what the AI searches over.
+     * Modifications to the bitboard will not affect this board.
+     */
+    public BitBoard toBitBoard() {
+        BitBoard position = new BitBoard();
+        for (int c = 0; c < BitBoard.WIDTH; c++) {
+            for (int row = BitBoard.HEIGHT - 1; row >= 0 && board[row][c] != null; row--) {
+                position.place(BitBoard.playerOf(board[row][c].color), BitBoard.HEIGHT - 1 - row, c);
+            }
+        }
+        position.setToMove(BitBoard.playerOf(currColor));
+
+        return position;
+    }
+
     /**
      * Sets positional values for a regular-sized board.
      */
@@ -39,6 +72,7 @@ public class ReguBoard extends Board {
         squareWidth = 60; 
         pieceStartHeight = 20;
         maxNumPieces = 42;
+        windows = WindowTable.forSize(boardWidth, boardHeight);
     }
     
     /**
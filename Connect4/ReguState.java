@@ -0,0 +1,116 @@
+package Connect4;
+
+import java.util.SplittableRandom;
+
+/**
+ * Regular Connect Four (7x6, two players), as a GameState. Moves are columns.
+ * The position is kept as two bitboards laid out the same way as BitBoard's.
+ * @author Owen Jow
+ */
+class ReguState implements GameState {
+    private long current, mask; // the pieces of the player to move, and every piece
+    private int toMove, winner = NOBODY;
+    private boolean over;
+
+    /**
+     * Constructs the position on POSITION (in which nobody has won yet).
+     */
+    ReguState(BitBoard position) {
+        toMove = position.getToMove();
+        current = position.getPieces(toMove);
+        mask = position.getMask();
+        over = position.isFull();
+    }
+
+    private ReguState(ReguState other) {
+        current = other.current;
+        mask = other.mask;
+        toMove = other.toMove;
+        winner = other.winner;
+        over = other.over;
+    }
+
+    @Override
+    public int getNumPlayers() {
+        return 2;
+    }
+
+    @Override
+    public int getToMove() {
+        return toMove;
+    }
+
+    @Override
+    public int getMoves(int[] moves) {
+        long possible = BitBoard.possibleMoves(mask);
+        int n = 0;
+        for (int c : AI.SELECTION_ORDER) {
+            if ((possible & BitBoard.columnMask(c)) != 0) { moves[n++] = c; }
+        }
+        return n;
+    }
+
+    @Override
+    public int getMaxMoves() {
+        return BitBoard.WIDTH;
+    }
+
+    @Override
+    public void play(int col) {
+        current ^= mask;
+        mask |= BitBoard.possibleMoves(mask) & BitBoard.columnMask(col);
+        if (BitBoard.hasFour(current ^ mask)) { // the pieces of the player who just moved
+            winner = toMove;
+            over = true;
+        } else if (mask == BitBoard.ALL_SQUARES) {
+            over = true;
+        }
+        toMove ^= 1;
+    }
+
+    @Override
+    public boolean isOver() {
+        return over;
+    }
+
+    @Override
+    public int getWinner() {
+        return winner;
+    }
+
+    /**
+     * Takes a win if there is one, blocks the other player's win if there is one,
+     * and otherwise picks any column at random.
+     */
+    @Override
+    public int randomMove(SplittableRandom random) {
+        long possible = BitBoard.possibleMoves(mask);
+        long wins = BitBoard.winningSquares(current, mask) & possible;
+        if (wins != 0) {
+            return BitBoard.columnOf(wins);
+        }
+        long blocks = BitBoard.winningSquares(current ^ mask, mask) & possible;
+        if (blocks != 0) {
+            return BitBoard.columnOf(blocks);
+        }
+
+        for (int k = random.nextInt(Long.bitCount(possible)); k > 0; k--) {
+            possible &= possible - 1;
+        }
+        return BitBoard.columnOf(possible);
+    }
+
+    /**
+     * Returns the position's code (as in BitBoard.getCode, but with the pieces of the player
+     * to move), which is different for every position.
+     */
+    @Override
+    public long getHash() {
+        return current + mask + BitBoard.BOTTOM_ROW;
+    }
+
+    @Override
+    public GameState copy() {
+        return new ReguState(this);
+    }
+}
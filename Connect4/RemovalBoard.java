@@ -14,6 +14,20 @@ import java.awt.Graphics2D;
 public class RemovalBoard extends ReguBoard {
     private int fallingCol = -1, lowerFallingRow, upperFallingRow;
     
+    /**
+     * Default constructor for an empty 7x6 board.
+     */
+    public RemovalBoard() {
+        super();
+    }
+    
+    /**
+     * Initializes the board with some specific configuration and current player.
+     */
+    public RemovalBoard(Piece[][] board, int numPieces, String currColor) {
+        super(board, numPieces, currColor);
+    }
+    
     @Override
     public boolean isColumnFalling() {
         return (fallingCol > -1);
@@ -11,6 +11,10 @@ import javafx.scene.shape.Circle;
  * opt to remove a piece as his/her turn.
  */
 public class RemovalPanel extends ReguC4Panel {
+    // The color the computer plays (with MonteCarlo), or null if both players are human
+    protected String computerColor = null;
+    protected long moveTimeLimit = 3000; // the most time (in ms) the computer may spend on a move
+    
     /**
      * Constructor. Creates a mouse listener and sets the background.
      */
@@ -19,6 +23,14 @@ public class RemovalPanel extends ReguC4Panel {
         bgId = 2;
     }
     
+    /**
+     * Has the computer play black in the games from now on if VS_COMPUTER is true,
+     * and otherwise leaves both sides to humans.
+     */
+    public void setVsComputer(boolean vsComputer) {
+        computerColor = vsComputer ? "black" : null;
+    }
+    
     /**
      * Activates the panel with the correct board.
      */
@@ -36,11 +48,27 @@ public class RemovalPanel extends ReguC4Panel {
     public void actionPerformed(ActionEvent evt) {
         if (board.isPieceFalling || board.isColumnFalling()) {
             board.animateFallingPiece();
+        } else if (!board.gameOver && board.getCurrPlayer().equals(computerColor)) {
+            playComputerMove();
         }
         
         repaint();
     }
     
+    /**
+     * Has the computer take its turn: either dropping a piece or removing one of its own.
+     */
+    private void playComputerMove() {
+        int move = MonteCarlo.getBestMove(new RemovalState(board.toBitBoard()), moveTimeLimit,
+                Runtime.getRuntime().availableProcessors());
+        if (move < BitBoard.WIDTH) {
+            board.addToColumn(board.interactivePiece, move);
+        } else {
+            int square = move - BitBoard.WIDTH; // a bitboard square, whose rows count up from the bottom
+            board.removePiece(BitBoard.HEIGHT - 1 - square % BitBoard.H1, square / BitBoard.H1);
+        }
+    }
+    
     /**
      * A mouse listener for two-player "regular board" Connect4.
      */
@@ -54,7 +82,8 @@ public class RemovalPanel extends ReguC4Panel {
         public void mouseClicked(MouseEvent evt) {
             if (board.gameOver || board.toMMHighlighted) {
                 Connect4.returnToMainMenu();
-            } else if (board.interactivePiece != null && !board.isPieceFalling && !board.isColumnFalling()) {
+            } else if (board.interactivePiece != null && !board.isPieceFalling && !board.isColumnFalling()
+                    && !board.getCurrPlayer().equals(computerColor)) {
                 if (board.shouldHidePiece) {
                     // The user may be trying to remove a piece. Let's see if they clicked on one:
                     // 1) Calculate the approximate array indices of the mouse coordinates
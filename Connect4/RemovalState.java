@@ -0,0 +1,155 @@
+package Connect4;
+
+import java.util.SplittableRandom;
+
+/**
+ * The Removal variant (see RemovalBoard), as a GameState. On a turn, a player either drops
+ * a piece into a column, or takes one of their own pieces off of the board, in which case
+ * everything above it falls down a square. If that makes a four for both players,
+ * the one who removed the piece wins.
+ *
+ * A move is either a column (0 to 6), or BitBoard.WIDTH plus the bitboard square of the piece
+ * to remove. Pieces are kept as one bitboard per player, laid out the same way as BitBoard's.
+ * @author Owen Jow
+ */
+class RemovalState implements GameState {
+    private final long[] pieces = new long[2]; // indexed by player
+    private int toMove, winner = NOBODY;
+    private boolean over;
+
+    /**
+     * Constructs the position on POSITION (in which nobody has won yet).
+     */
+    RemovalState(BitBoard position) {
+        pieces[BitBoard.RED] = position.getPieces(BitBoard.RED);
+        pieces[BitBoard.BLACK] = position.getPieces(BitBoard.BLACK);
+        toMove = position.getToMove();
+        over = position.isFull();
+    }
+
+    private RemovalState(RemovalState other) {
+        pieces[0] = other.pieces[0];
+        pieces[1] = other.pieces[1];
+        toMove = other.toMove;
+        winner = other.winner;
+        over = other.over;
+    }
+
+    @Override
+    public int getNumPlayers() {
+        return 2;
+    }
+
+    @Override
+    public int getToMove() {
+        return toMove;
+    }
+
+    @Override
+    public int getMoves(int[] moves) {
+        long possible = BitBoard.possibleMoves(pieces[0] | pieces[1]);
+        int n = 0;
+        for (int c : AI.SELECTION_ORDER) {
+            if ((possible & BitBoard.columnMask(c)) != 0) { moves[n++] = c; }
+        }
+        for (long mine = pieces[toMove]; mine != 0; mine &= mine - 1) {
+            moves[n++] = BitBoard.WIDTH + Long.numberOfTrailingZeros(mine);
+        }
+        return n;
+    }
+
+    @Override
+    public int getMaxMoves() {
+        return BitBoard.WIDTH + BitBoard.SIZE;
+    }
+
+    @Override
+    public void play(int move) {
+        long mask = pieces[0] | pieces[1];
+        if (move < BitBoard.WIDTH) {
+            pieces[toMove] |= BitBoard.possibleMoves(mask) & BitBoard.columnMask(move);
+            if (BitBoard.hasFour(pieces[toMove])) {
+                winner = toMove;
+                over = true;
+            } else if ((mask | pieces[toMove]) == BitBoard.ALL_SQUARES) {
+                over = true;
+            }
+        } else {
+            int square = move - BitBoard.WIDTH;
+            long column = BitBoard.columnMask(square / BitBoard.H1);
+            long below = (1L << square) - 1, above = column & ~below & ~(1L << square);
+            for (int p = 0; p < 2; p++) {
+                pieces[p] = (pieces[p] & ~column) | (pieces[p] & column & below)
+                        | ((pieces[p] & above) >>> 1);
+            }
+
+            // Only the pieces that fell can have made a new four
+            if ((mask & above) != 0) {
+                if (BitBoard.hasFour(pieces[toMove])) {
+                    winner = toMove;
+                    over = true;
+                } else if (BitBoard.hasFour(pieces[toMove ^ 1])) {
+                    winner = toMove ^ 1;
+                    over = true;
+                }
+            }
+        }
+        toMove ^= 1;
+    }
+
+    @Override
+    public boolean isOver() {
+        return over;
+    }
+
+    @Override
+    public int getWinner() {
+        return winner;
+    }
+
+    /**
+     * Takes a winning drop if there is one, and otherwise picks a move at random,
+     * with removals a quarter as likely as drops (most of them just waste a turn).
+     */
+    @Override
+    public int randomMove(SplittableRandom random) {
+        long mask = pieces[0] | pieces[1];
+        long possible = BitBoard.possibleMoves(mask);
+        long wins = BitBoard.winningSquares(pieces[toMove], mask) & possible;
+        if (wins != 0) {
+            return BitBoard.columnOf(wins);
+        }
+
+        long choices = possible;
+        int offset = 0;
+        if (pieces[toMove] != 0 && (possible == 0 || random.nextInt(4) == 0)) {
+            choices = pieces[toMove];
+            offset = BitBoard.WIDTH;
+        }
+        for (int k = random.nextInt(Long.bitCount(choices)); k > 0; k--) {
+            choices &= choices - 1;
+        }
+        int square = Long.numberOfTrailingZeros(choices);
+        return (offset == 0) ? square / BitBoard.H1 : offset + square;
+    }
+
+    @Override
+    public long getHash() {
+        long h = mix(pieces[0]) * 31 + mix(pieces[1] ^ 0x2545F4914F6CDD1DL);
+        return (toMove == 0) ? h : ~h;
+    }
+
+    /**
+     * Scrambles the bits of X (the finalizer from SplitMix64).
+     */
+    private static long mix(long x) {
+        x = (x ^ (x >>> 30)) * 0xBF58476D1CE4E5B9L;
+        x = (x ^ (x >>> 27)) * 0x94D049BB133111EBL;
+        return x ^ (x >>> 31);
+    }
+
+    @Override
+    public GameState copy() {
+        return new RemovalState(this);
+    }
+}
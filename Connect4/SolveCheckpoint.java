@@ -0,0 +1,239 @@
+package Connect4;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A checkpoint file for a long EndgameSolver run, so that a solve that dies partway through
+ * (the JVM runs out of memory, or gets restarted) can pick up where it left off.
+ * Give a solver a checkpoint with EndgameSolver.setCheckpoint; from then on, solving the position
+ * the file was written for starts from what the file says, and solving any other position
+ * starts the file over.
+ *
+ * The file holds the solve's open work (the range that the score is still known to be in,
+ * and the best move so far), its result once it has one, and the contents of the solver's table.
+ * Everything the endgame solver stores is true no matter when it was found, so the table doesn't
+ * have to be saved all at once: every so often, the solver writes out the next chunk of it
+ * (along with the open work), which only takes a moment, and the whole table goes out over
+ * a number of those. A crash can't leave the file in a state that's wrong, only in one that's
+ * a little out of date. Each slot is written as [ hash ^ entry, entry ], so a slot that was
+ * only half written just doesn't match anything when it's read back.
+ *
+ * The file is laid out as a header (see the offsets below) and then the table, slot by slot.
+ * @author Owen Jow
+ */
+public class SolveCheckpoint implements Closeable {
+    static final long DEFAULT_INTERVAL = 10000; // milliseconds between chunks
+    static final int CHUNK_SLOTS = 1 << 16; // slots written per chunk (1 MB)
+
+    private static final int MAGIC = 0x43344350; // "C4CP"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 64;
+    private static final int SLOT_BYTES = 16;
+
+    // Header offsets
+    private static final int CODE = 8, SLOTS = 16, WEAK = 20, DONE = 24, MIN = 28, MAX = 32,
+            BEST_MOVE = 36, NODES = 40;
+
+    private final File file;
+    private final long interval; // in nanoseconds
+    private final FileChannel channel;
+    private final ByteBuffer header = ByteBuffer.allocateDirect(HEADER_BYTES);
+    private final ByteBuffer chunk = ByteBuffer.allocateDirect(CHUNK_SLOTS * SLOT_BYTES);
+    private HeapTable table; // the table being saved (set by start or resume)
+    private int nextSlot; // the first slot of the next chunk to write
+    private long nextWrite; // when the next chunk is due, in System.nanoTime() terms
+
+    /**
+     * Opens (or creates) the checkpoint file FILE, to be written to every INTERVAL milliseconds.
+     */
+    public SolveCheckpoint(File file, long interval) throws IOException {
+        this.file = file;
+        this.interval = interval * 1000000L;
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (channel.size() >= HEADER_BYTES) {
+            channel.read(header, 0);
+        }
+        if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+            header.clear();
+            while (header.hasRemaining()) {
+                header.put((byte) 0); // an empty file (or something else), so there's nothing to resume
+            }
+        }
+    }
+
+    /**
+     * If this file holds a solve of POSITION (of the same kind, exact or WEAK), loads its table
+     * into TABLE and returns true. The saved open work can then be read with getMin, getMax,
+     * getBestMove, isDone and getNodes. Otherwise, returns false.
+     */
+    boolean resume(BitBoard position, boolean weak, HeapTable table) throws IOException {
+        if (header.getInt(0) != MAGIC || header.getLong(CODE) != position.getCode()
+                || header.getInt(WEAK) != (weak ? 1 : 0)) {
+            return false;
+        } else if (isDone()) {
+            return true; // there's nothing left to do, so there's no need for the table
+        }
+
+        int slots = header.getInt(SLOTS);
+        for (long offset = 0; offset < (long) slots * SLOT_BYTES; offset += chunk.capacity()) {
+            chunk.clear();
+            while (chunk.hasRemaining() && channel.read(chunk, HEADER_BYTES + offset + chunk.position()) > 0) {
+                // keep reading until the chunk is full (or the file ends)
+            }
+            chunk.flip();
+            while (chunk.remaining() >= SLOT_BYTES) {
+                long checked = chunk.getLong(), entry = chunk.getLong();
+                if (entry != 0) {
+                    table.restore(checked ^ entry, entry);
+                }
+            }
+        }
+        this.table = table;
+        header.putInt(SLOTS, table.capacity()); // it's this table that gets written from now on
+        nextSlot = 0;
+        nextWrite = System.nanoTime() + interval;
+
+        return true;
+    }
+
+    /**
+     * Starts the file over for a new solve of POSITION (exact or WEAK) that uses TABLE,
+     * with the score somewhere in [MIN, MAX].
+     */
+    void start(BitBoard position, boolean weak, HeapTable table, int min, int max) throws IOException {
+        this.table = table;
+        channel.truncate(HEADER_BYTES);
+        header.putInt(0, MAGIC);
+        header.putInt(4, VERSION);
+        header.putLong(CODE, position.getCode());
+        header.putInt(SLOTS, table.capacity());
+        header.putInt(WEAK, weak ? 1 : 0);
+        header.putInt(DONE, 0);
+        header.putLong(NODES, 0);
+        nextSlot = 0;
+        nextWrite = System.nanoTime() + interval;
+        update(min, max, TranspositionTable.NO_MOVE, 0);
+    }
+
+    /**
+     * Records the solve's open work: its score is in [MIN, MAX], the best move so far is
+     * BEST_MOVE, and it has visited NODES positions in all (counting any earlier runs).
+     */
+    void update(int min, int max, int bestMove, long nodes) throws IOException {
+        header.putInt(MIN, min);
+        header.putInt(MAX, max);
+        header.putInt(BEST_MOVE, bestMove);
+        header.putLong(NODES, nodes);
+        writeHeader();
+    }
+
+    /**
+     * Records that the solve finished, with the score SCORE and best move BEST_MOVE.
+     */
+    void finish(int score, int bestMove, long nodes) throws IOException {
+        header.putInt(DONE, 1);
+        update(score, score, bestMove, nodes);
+    }
+
+    /**
+     * Returns true if the next chunk is due at the System.nanoTime() value NOW.
+     */
+    boolean isDue(long now) {
+        return now >= nextWrite;
+    }
+
+    /**
+     * Writes out the next chunk of the table, and then the open work (with NODES as in update).
+     */
+    void writeChunk(long nodes) throws IOException {
+        int end = Math.min(nextSlot + CHUNK_SLOTS, table.capacity());
+        chunk.clear();
+        for (int i = nextSlot; i < end; i++) {
+            long entry = table.getEntry(i);
+            chunk.putLong(table.getKey(i) ^ entry).putLong(entry);
+        }
+        chunk.flip();
+        long position = HEADER_BYTES + (long) nextSlot * SLOT_BYTES;
+        while (chunk.hasRemaining()) {
+            position += channel.write(chunk, position);
+        }
+        nextSlot = (end == table.capacity()) ? 0 : end;
+        header.putLong(NODES, nodes);
+        writeHeader();
+        nextWrite = System.nanoTime() + interval;
+    }
+
+    private void writeHeader() throws IOException {
+        header.clear();
+        while (header.hasRemaining()) {
+            channel.write(header, header.position());
+        }
+        channel.force(false);
+    }
+
+    int getMin() {
+        return header.getInt(MIN);
+    }
+
+    int getMax() {
+        return header.getInt(MAX);
+    }
+
+    int getBestMove() {
+        return header.getInt(BEST_MOVE);
+    }
+
+    boolean isDone() {
+        return header.getInt(DONE) != 0;
+    }
+
+    long getNodes() {
+        return header.getLong(NODES);
+    }
+
+    /**
+     * Returns the file this checkpoint is kept in.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Solves a position exactly, checkpointing as it goes and resuming from the checkpoint if
+     * there is one. The position is given as the columns played so far, numbered from 1
+     * (e.g. "4453"). Run it again with the same arguments after a crash to carry on.
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 2) {
+            System.err.println("Usage: java Connect4.SolveCheckpoint MOVES CHECKPOINT_FILE"
+                    + " [TABLE_BITS] [SECONDS_BETWEEN_CHUNKS]");
+            System.exit(1);
+        }
+        BitBoard position = new BitBoard();
+        for (char c : args[0].toCharArray()) {
+            position.play(c - '1');
+        }
+        int tableBits = (args.length > 2) ? Integer.parseInt(args[2]) : AI.ENDGAME_TABLE_BITS;
+        long interval = (args.length > 3) ? (long) (Double.parseDouble(args[3]) * 1000) : DEFAULT_INTERVAL;
+
+        long start = System.nanoTime();
+        EndgameSolver solver = new EndgameSolver(tableBits);
+        try (SolveCheckpoint checkpoint = new SolveCheckpoint(new File(args[1]), interval)) {
+            solver.setCheckpoint(checkpoint);
+            solver.solve(position, Long.MAX_VALUE);
+        }
+        System.out.printf("Best move: %d, score: %d (%d positions, %.1f s)%n", solver.getBestMove() + 1,
+                solver.getScore(), solver.getNodesSearched(), (System.nanoTime() - start) / 1e9);
+    }
+}
@@ -0,0 +1,443 @@
+package Connect4;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Solves every position at a given ply with a farm of worker processes, for jobs that are
+ * too big for one JVM. A coordinator hands the positions out to workers over sockets, one at
+ * a time, and merges whatever comes back into a SolvedCache file (positions that are already in
+ * that file are skipped, so a farm that dies can just be started again). The workers can be
+ * anywhere the coordinator can be reached from; run them all on one machine with "local",
+ * or start a coordinator on one machine and workers on others by giving them its address.
+ *
+ * A worker only gets a limited amount of time per position. If it can't solve a position
+ * in that time, the coordinator splits it: each of its children (the subtrees under it) becomes
+ * a task of its own, at the front of the queue, and the position's result is put together from
+ * theirs once they're in. The same thing happens when a worker runs out of work while others
+ * are busy: it steals from the task that has been running the longest, by splitting it and
+ * taking one of the children. (Whichever finishes first, the task or all of its children,
+ * settles the position.) When a worker disconnects, or goes quiet for too long, its task
+ * goes back to the front of the queue.
+ *
+ * The protocol is a handful of messages over a DataInputStream/DataOutputStream pair. A worker
+ * sends READY when it wants a task, and RESULT (code, solved, score, move) when it's done with one.
+ * The coordinator answers READY with TASK (code, exact, milliseconds) or, once everything
+ * is solved, STOP.
+ * @author Owen Jow
+ */
+public class SolveFarm {
+    static final long DEFAULT_SLICE = 60000; // milliseconds a worker gets per task
+    static final long STEAL_AFTER = 5000; // a task has to have run this long before it can be split
+    static final int PROGRESS_INTERVAL = 1000; // positions between progress reports
+
+    // Messages from a worker
+    private static final byte READY = 0, RESULT = 1;
+    // Messages from the coordinator
+    private static final byte TASK = 0, STOP = 1;
+
+    /**
+     * A position to solve: either one of the farm's own positions, or a child of
+     * a position that had to be split.
+     */
+    private static final class Task {
+        final long code; // the smaller of the position's code and its mirror image's
+        final Task parent; // null for the farm's own positions
+        final int column; // the move from the parent to this position (in the parent's orientation)
+        boolean done, split;
+        long started; // when it was handed out, in System.nanoTime() terms
+        int pending; // children that haven't been settled, once it's split
+        int best = Integer.MIN_VALUE, bestMove = TranspositionTable.NO_MOVE; // the best child so far
+
+        Task(long code, Task parent, int column) {
+            this.code = code;
+            this.parent = parent;
+            this.column = column;
+        }
+
+        /**
+         * Returns true if this task (or one it's part of) has already been settled another way.
+         */
+        boolean isMoot() {
+            for (Task t = this; t != null; t = t.parent) {
+                if (t.done) { return true; }
+            }
+            return false;
+        }
+    }
+
+    private final SolvedCache store;
+    private final boolean exact; // whether to find exact scores, or just outcomes
+    private final long slice; // in milliseconds
+    private final Deque<Task> queue = new ArrayDeque<>();
+    private final Set<Task> inFlight = new LinkedHashSet<>(); // in the order they were handed out
+    private int remaining, total; // the farm's own positions that are left, and in all
+    private int connections; // workers that are connected right now
+
+    /**
+     * Sets up a farm that solves every position in CODES (in the form returned by
+     * OpeningBook.enumerate) that isn't already in STORE, for the exact score if EXACT is true
+     * and just the outcome otherwise. Workers get SLICE milliseconds per task.
+     */
+    SolveFarm(long[] codes, SolvedCache store, boolean exact, long slice) {
+        this.store = store;
+        this.exact = exact;
+        this.slice = slice;
+        for (long code : codes) {
+            int known = store.get(OpeningBook.decode(code));
+            if (known == 0 || (exact && !SolvedCache.isExact(known))) {
+                queue.add(new Task(code, null, TranspositionTable.NO_MOVE));
+            }
+        }
+        remaining = total = queue.size();
+    }
+
+    /**
+     * Returns the number of positions this farm has to solve.
+     */
+    synchronized int getTotal() {
+        return total;
+    }
+
+    //================================================================================
+    // The coordinator
+    //================================================================================
+
+    /**
+     * Accepts workers on SERVER (each on a thread of its own) until every position is solved,
+     * and then until every worker has been told to stop: the ones still busy with tasks that no
+     * longer matter are waited for (or given up on, as lost), so nothing comes in after this returns.
+     */
+    void coordinate(ServerSocket server) throws InterruptedException {
+        Thread acceptor = new Thread(() -> {
+            while (!server.isClosed()) {
+                try {
+                    Socket socket = server.accept();
+                    Thread handler = new Thread(() -> serve(socket), "solve-farm-" + socket.getPort());
+                    handler.setDaemon(true);
+                    handler.start();
+                } catch (IOException e) {
+                    // the server was closed, or the connection failed before we got it
+                }
+            }
+        }, "solve-farm-acceptor");
+        acceptor.setDaemon(true);
+        acceptor.start();
+
+        synchronized (this) {
+            while (remaining > 0 || !inFlight.isEmpty() || connections > 0) {
+                wait();
+            }
+        }
+    }
+
+    /**
+     * Talks to the worker on SOCKET until there's nothing left to do, or until the worker is lost
+     * (in which case its task goes back in the queue).
+     */
+    private void serve(Socket socket) {
+        synchronized (this) {
+            connections++;
+        }
+        Task task = null;
+        try (Socket s = socket;
+             DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream()));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()))) {
+            s.setSoTimeout((int) Math.min(Integer.MAX_VALUE, 2 * slice + 60000)); // then it's lost
+            while (true) {
+                byte message = in.readByte();
+                if (message == RESULT) {
+                    long code = in.readLong();
+                    boolean solved = in.readBoolean();
+                    int score = in.readInt(), move = in.readInt();
+                    if (task == null || task.code != code) {
+                        throw new IOException("result for a position the worker wasn't given");
+                    }
+                    report(task, solved, score, move);
+                    task = null;
+                    continue;
+                }
+
+                task = take();
+                if (task == null) {
+                    out.writeByte(STOP);
+                    out.flush();
+                    return;
+                }
+                out.writeByte(TASK);
+                out.writeLong(task.code);
+                out.writeBoolean(exact);
+                out.writeLong(slice);
+                out.flush();
+            }
+        } catch (IOException | InterruptedException e) {
+            System.err.println("Lost worker " + socket.getRemoteSocketAddress() + ": " + e);
+        } finally {
+            if (task != null) {
+                lose(task);
+            }
+            synchronized (this) {
+                connections--;
+                notifyAll();
+            }
+        }
+    }
+
+    /**
+     * Returns the next task to hand out, waiting for one if need be (and stealing one if a task
+     * has been running long enough to split). Returns null once everything is solved.
+     */
+    private synchronized Task take() throws InterruptedException {
+        while (remaining > 0) {
+            Task task;
+            while ((task = queue.pollFirst()) != null) {
+                if (!task.isMoot()) {
+                    task.started = System.nanoTime();
+                    inFlight.add(task);
+                    return task;
+                }
+            }
+
+            // The queue is empty, so take some of the work that's been going on the longest
+            long now = System.nanoTime();
+            Task victim = null;
+            for (Task t : inFlight) {
+                if (!t.split && !t.isMoot() && now - t.started >= STEAL_AFTER * 1000000L) {
+                    victim = t;
+                    break;
+                }
+            }
+            if (victim != null) {
+                split(victim);
+            } else {
+                wait(1000); // until something finishes, or a task is old enough to steal from
+            }
+        }
+
+        return null;
+    }
+
+    /**
+     * Records what a worker said about TASK: its score and best move if it was SOLVED,
+     * and otherwise that it needs splitting.
+     */
+    private synchronized void report(Task task, boolean solved, int score, int move) {
+        inFlight.remove(task);
+        if (solved) {
+            complete(task, score, move);
+        } else if (!task.split && !task.isMoot()) {
+            split(task);
+        }
+        notifyAll();
+    }
+
+    /**
+     * Puts TASK, whose worker was lost, back at the front of the queue.
+     */
+    private synchronized void lose(Task task) {
+        inFlight.remove(task);
+        if (!task.split && !task.isMoot()) {
+            queue.addFirst(task);
+        }
+        notifyAll();
+    }
+
+    /**
+     * Turns TASK into one task per child, at the front of the queue. Children that end the game
+     * are settled on the spot (and a win settles TASK itself).
+     */
+    private void split(Task task) {
+        task.split = true;
+        BitBoard position = OpeningBook.decode(task.code);
+        List<Task> children = new ArrayList<>();
+        for (int c = 0; c < BitBoard.WIDTH; c++) {
+            if (!position.canPlay(c)) { continue; }
+
+            position.play(c);
+            if (position.hasFour(position.getLastMover())) {
+                complete(task, exact ? AI.winScore(position.getNumMoves()) : 1, c);
+                return;
+            } else if (position.isFull()) {
+                offer(task, c, 0);
+            } else {
+                long code = position.getCode();
+                children.add(new Task(Math.min(code, BitBoard.mirror(code)), task, c));
+            }
+            position.undo(c);
+        }
+
+        task.pending = children.size();
+        if (task.pending == 0) {
+            complete(task, task.best, task.bestMove);
+        }
+        for (int i = children.size() - 1; i >= 0; i--) {
+            queue.addFirst(children.get(i)); // depth first, so that subtrees finish
+        }
+        notifyAll();
+    }
+
+    /**
+     * Settles TASK with the score SCORE and best move MOVE, saves it, and passes it on to its parent.
+     */
+    private void complete(Task task, int score, int move) {
+        if (task.done || (remaining == 0 && task.isMoot())) {
+            inFlight.remove(task);
+            return; // nothing to add (and once the farm is finished, nowhere to put it)
+        }
+
+        task.done = true;
+        inFlight.remove(task);
+        store.put(OpeningBook.decode(task.code), score, move, exact);
+        if (task.parent == null) {
+            remaining--;
+            if ((total - remaining) % PROGRESS_INTERVAL == 0) {
+                System.out.println((total - remaining) + " / " + total + " solved");
+            }
+            notifyAll();
+            return;
+        }
+
+        Task parent = task.parent;
+        if (parent.done) { return; }
+        offer(parent, task.column, -score);
+        parent.pending--;
+        if (parent.pending == 0 || (!exact && parent.best == 1)) {
+            complete(parent, parent.best, parent.bestMove); // a win doesn't need the other children
+        }
+    }
+
+    /**
+     * Records that the move COLUMN from TASK's position is worth SCORE to the player who makes it.
+     */
+    private static void offer(Task task, int column, int score) {
+        if (score > task.best) {
+            task.best = score;
+            task.bestMove = column;
+        }
+    }
+
+    //================================================================================
+    // The worker
+    //================================================================================
+
+    /**
+     * Works for the coordinator at HOST:PORT, with a solver table of 2^TABLE_BITS entries
+     * (kept from one task to the next), until it's told to stop.
+     */
+    static void work(String host, int port, int tableBits) throws IOException {
+        EndgameSolver solver = new EndgameSolver(tableBits);
+        try (Socket socket = new Socket(host, port);
+             DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()))) {
+            out.writeByte(READY);
+            out.flush();
+            while (in.readByte() == TASK) {
+                long code = in.readLong();
+                boolean exact = in.readBoolean();
+                long deadline = System.nanoTime() + in.readLong() * 1000000L;
+                BitBoard position = OpeningBook.decode(code);
+                boolean solved = exact ? solver.solve(position, deadline) : solver.solveOutcome(position, deadline);
+
+                out.writeByte(RESULT);
+                out.writeLong(code);
+                out.writeBoolean(solved);
+                out.writeInt(solved ? solver.getScore() : 0);
+                out.writeInt(solved ? solver.getBestMove() : TranspositionTable.NO_MOVE);
+                out.writeByte(READY);
+                out.flush();
+            }
+        }
+    }
+
+    //================================================================================
+    // Running a farm
+    //================================================================================
+
+    /**
+     * Returns the codes of every position (up to mirror images) at exactly PLY plies.
+     */
+    static long[] positionsAt(int ply) {
+        return Arrays.stream(OpeningBook.enumerate(ply))
+                .filter(code -> OpeningBook.decode(code).getNumMoves() == ply)
+                .toArray();
+    }
+
+    /**
+     * Runs a coordinator, a worker, or a whole farm on this machine ("local"), which starts
+     * its workers as separate JVMs that connect over loopback. Add "exact" at the end of
+     * the coordinator's (or the local farm's) arguments to find exact scores instead of outcomes.
+     */
+    public static void main(String[] args) throws Exception {
+        String mode = (args.length > 0) ? args[0] : "";
+        boolean exact = args.length > 0 && args[args.length - 1].equals("exact");
+        int numArgs = exact ? args.length - 1 : args.length;
+        if (mode.equals("worker") && numArgs >= 3) {
+            int tableBits = (numArgs > 3) ? Integer.parseInt(args[3]) : AI.ENDGAME_TABLE_BITS;
+            work(args[1], Integer.parseInt(args[2]), tableBits);
+            return;
+        } else if ((mode.equals("coordinator") && numArgs >= 4) || (mode.equals("local") && numArgs >= 4)) {
+            int ply = Integer.parseInt(args[1]);
+            File output = new File(args[2]);
+            long slice = (numArgs > 4) ? (long) (Double.parseDouble(args[4]) * 1000) : DEFAULT_SLICE;
+            boolean local = mode.equals("local");
+            InetAddress address = (local || numArgs <= 5)
+                    ? InetAddress.getLoopbackAddress() : InetAddress.getByName(args[5]);
+            int port = local ? 0 : Integer.parseInt(args[3]);
+            run(ply, output, exact, slice, new InetSocketAddress(address, port),
+                    local ? Integer.parseInt(args[3]) : 0);
+            return;
+        }
+
+        System.err.println("Usage: java Connect4.SolveFarm coordinator PLY OUTPUT_FILE PORT"
+                + " [SECONDS_PER_TASK] [BIND_ADDRESS] [exact]");
+        System.err.println("       java Connect4.SolveFarm worker HOST PORT [TABLE_BITS]");
+        System.err.println("       java Connect4.SolveFarm local PLY OUTPUT_FILE WORKERS"
+                + " [SECONDS_PER_TASK] [exact]");
+        System.exit(1);
+    }
+
+    /**
+     * Solves every position at PLY into the cache file OUTPUT, coordinating from ADDRESS.
+     * If LOCAL_WORKERS is more than 0, that many worker JVMs are started here (and stopped at the end).
+     */
+    private static void run(int ply, File output, boolean exact, long slice, InetSocketAddress address,
+                            int localWorkers) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        try (SolvedCache store = new SolvedCache(SolvedCache.MEMORY_ENTRIES, output);
+             ServerSocket server = new ServerSocket()) {
+            SolveFarm farm = new SolveFarm(positionsAt(ply), store, exact, slice);
+            server.bind(address);
+            System.out.println(farm.getTotal() + " positions to solve; coordinating on "
+                    + server.getLocalSocketAddress());
+
+            List<Process> workers = new ArrayList<>();
+            String java = new File(new File(System.getProperty("java.home"), "bin"), "java").getPath();
+            for (int i = 0; i < localWorkers; i++) {
+                workers.add(new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                        SolveFarm.class.getName(), "worker", address.getHostString(),
+                        String.valueOf(server.getLocalPort())).inheritIO().start());
+            }
+
+            farm.coordinate(server);
+            for (Process worker : workers) {
+                worker.waitFor(); // they stop once they ask for more work
+            }
+        }
+        System.out.printf("Solved %d-ply positions in %.1f s%n", ply, (System.nanoTime() - start) / 1e9);
+    }
+}
@@ -0,0 +1,510 @@
+package Connect4;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Every position the AI has ever proved, kept from one run of the program to the next.
+ * Unlike the transposition tables, nothing here is a guess or a bound: each value is either
+ * the exact score of a position (as EndgameSolver.solve finds it) or just its outcome
+ * (as solveOutcome finds it), along with a best move.
+ *
+ * There are two tiers. In front is a small in-memory table of the positions used most recently
+ * (least recently used ones are dropped when it fills up). Behind it is a file that every new
+ * result is appended to, so nothing is lost when the program exits. The file starts with a sorted
+ * run of records, which is memory-mapped and binary searched, followed by a log of the records
+ * added since; the log is also kept in memory, and once it gets long, a background thread merges
+ * it into a new sorted run. A Bloom filter of every position in the file means that positions
+ * that were never solved (most of them) don't have to go to the file at all.
+ *
+ * Any number of threads can look positions up and add results at the same time. Lookups and
+ * appends share a read lock; only the moment when a compaction swaps in the new file takes
+ * the write lock.
+ *
+ * Values are packed into an int: [ score : 16+ | exact : 1 | best move + 1 : 4 ], and 0 means
+ * nothing is known. Positions are keyed by BitBoard.getCanonicalCode, and moves are stored
+ * for the canonical orientation.
+ * @author Owen Jow
+ */
+public class SolvedCache implements Closeable {
+    static final String CACHE_PROPERTY = "connect4.solvedCache"; // e.g. -Dconnect4.solvedCache=solved.bin
+    static final String DEFAULT_FILE = ".connect4-solved.bin"; // in the user's home directory
+    static final int MEMORY_ENTRIES = 1 << 16; // positions kept in the in-memory tier
+    static final int COMPACT_THRESHOLD = 1 << 14; // log records that trigger a compaction
+
+    private static final int MAGIC = 0x43345343; // "C4SC"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 16;
+    private static final int RECORD_BYTES = 12; // the code (a long), then the value (an int)
+    private static final int EXACT_FLAG = 0x10, MOVE_MASK = 0xF, SCORE_SHIFT = 8;
+
+    private final Map<Long, Integer> recent; // the in-memory tier, in least-recently-used order
+    private final File file; // null if the cache only lives in memory
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final AtomicBoolean compacting = new AtomicBoolean();
+    private final ExecutorService compactor;
+
+    // The file's state. These are only replaced while holding the write lock.
+    private FileChannel channel;
+    private ByteBuffer sorted; // the sorted run
+    private int numSorted;
+    private final Map<Long, Integer> log = new ConcurrentHashMap<>(); // appended since the sorted run
+    private volatile BloomFilter filter;
+
+    /**
+     * Opens a cache whose in-memory tier holds up to MEMORY_ENTRIES positions, backed by FILE
+     * (which is created if it doesn't exist). If FILE is null, nothing is saved.
+     */
+    public SolvedCache(int memoryEntries, File file) throws IOException {
+        recent = new LinkedHashMap<Long, Integer>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Integer> eldest) {
+                return size() > memoryEntries;
+            }
+        };
+        this.file = file;
+        if (file == null) {
+            compactor = null;
+            return;
+        }
+
+        compactor = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "solved-cache-compactor");
+            t.setDaemon(true);
+            return t;
+        });
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null) {
+            parent.mkdirs();
+        }
+        Files.deleteIfExists(tempFile().toPath()); // left over from a compaction that never finished
+        openFile();
+        if (log.size() >= COMPACT_THRESHOLD) {
+            compactInBackground();
+        }
+    }
+
+    /**
+     * Opens the cache at the path in the CACHE_PROPERTY system property, or else DEFAULT_FILE
+     * in the user's home directory. If the file can't be used, the cache just lives in memory.
+     */
+    static SolvedCache open() {
+        String path = System.getProperty(CACHE_PROPERTY);
+        File file = (path != null) ? new File(path)
+                : new File(System.getProperty("user.home"), DEFAULT_FILE);
+        try {
+            return new SolvedCache(MEMORY_ENTRIES, file);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Couldn't open the solved-position cache: " + e);
+            try {
+                return new SolvedCache(MEMORY_ENTRIES, null);
+            } catch (IOException impossible) {
+                throw new AssertionError(impossible);
+            }
+        }
+    }
+
+    /**
+     * Returns what's known about POSITION (as a packed value, with the move already flipped
+     * to match POSITION), or 0 if it has never been solved.
+     */
+    public int get(BitBoard position) {
+        long code = position.getCode(), mirrored = BitBoard.mirror(code);
+        int value = get(position.getCanonicalCode());
+        return (value != 0 && mirrored < code) ? flipMove(value) : value;
+    }
+
+    /**
+     * Records that POSITION has the exact score SCORE (if EXACT is true) or just the outcome
+     * SCORE (1, 0 or -1) otherwise, for the player to move, and that MOVE keeps it.
+     * An exact score is never replaced by just an outcome.
+     */
+    public void put(BitBoard position, int score, int move, boolean exact) {
+        if (move < 0) {
+            return; // every value needs a move (0 means that nothing is stored)
+        }
+        long code = position.getCode(), mirrored = BitBoard.mirror(code);
+        int value = pack(score, move, exact);
+        put(position.getCanonicalCode(), (mirrored < code) ? flipMove(value) : value);
+    }
+
+    /**
+     * Returns the value stored for the position with the canonical code CODE, or 0.
+     */
+    int get(long code) {
+        synchronized (recent) {
+            Integer value = recent.get(code);
+            if (value != null) {
+                return value;
+            }
+        }
+        if (file == null || !filter.mightContain(code)) {
+            return 0;
+        }
+
+        int value;
+        lock.readLock().lock();
+        try {
+            Integer logged = log.get(code);
+            value = (logged != null) ? logged : findSorted(code);
+        } finally {
+            lock.readLock().unlock();
+        }
+        if (value != 0) {
+            synchronized (recent) {
+                recent.put(code, value);
+            }
+        }
+
+        return value;
+    }
+
+    /**
+     * Stores VALUE for the position with the canonical code CODE, unless it's no better
+     * than what's already there.
+     */
+    void put(long code, int value) {
+        int old = get(code);
+        if (old != 0 && (isExact(old) || !isExact(value))) {
+            return; // we already knew this much
+        }
+        synchronized (recent) {
+            recent.put(code, value);
+        }
+        if (file == null) {
+            return;
+        }
+
+        lock.readLock().lock();
+        try {
+            log.put(code, value);
+            filter.add(code);
+            ByteBuffer record = ByteBuffer.allocate(RECORD_BYTES).putLong(code).putInt(value);
+            record.flip();
+            synchronized (channel) {
+                channel.write(record, channel.size());
+            }
+        } catch (IOException e) {
+            System.err.println("Couldn't save to the solved-position cache: " + e);
+        } finally {
+            lock.readLock().unlock();
+        }
+        if (log.size() >= COMPACT_THRESHOLD) {
+            compactInBackground();
+        }
+    }
+
+    /**
+     * Returns the number of positions in the cache (counting each of the file's at most once).
+     */
+    public int size() {
+        if (file == null) {
+            synchronized (recent) {
+                return recent.size();
+            }
+        }
+
+        lock.readLock().lock();
+        try {
+            int n = numSorted;
+            for (long code : log.keySet()) {
+                if (findSorted(code) == 0) { n++; }
+            }
+            return n;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Waits for any compaction that's running, and closes the file.
+     */
+    @Override
+    public void close() throws IOException {
+        if (file == null) {
+            return;
+        }
+
+        compactor.shutdown();
+        try {
+            compactor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        lock.writeLock().lock();
+        try {
+            channel.force(false);
+            channel.close();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    static int getScore(int value) {
+        return value >> SCORE_SHIFT;
+    }
+
+    static int getMove(int value) {
+        return (value & MOVE_MASK) - 1;
+    }
+
+    static boolean isExact(int value) {
+        return (value & EXACT_FLAG) != 0;
+    }
+
+    private static int pack(int score, int move, boolean exact) {
+        return (score << SCORE_SHIFT) | (exact ? EXACT_FLAG : 0) | (move + 1);
+    }
+
+    /**
+     * Returns VALUE with its move swapped for the mirror image.
+     */
+    private static int flipMove(int value) {
+        int move = getMove(value);
+        return (move < 0) ? value : (value & ~MOVE_MASK) | (BitBoard.WIDTH - move);
+    }
+
+    //================================================================================
+    // The file
+    //================================================================================
+
+    /**
+     * Opens FILE (creating it if need be), maps its sorted run, reads its log into memory
+     * and fills in the Bloom filter. A partly written record at the end of the log
+     * (from a crash, say) is cut off. Called with the write lock held, or before anyone else
+     * can see the cache.
+     */
+    private void openFile() throws IOException {
+        channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        if (channel.size() < HEADER_BYTES) {
+            writeHeader(channel, 0);
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        channel.read(header, 0);
+        if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+            channel.close();
+            throw new IOException(file + " isn't a solved-position cache");
+        }
+        numSorted = header.getInt(8);
+        long logStart = HEADER_BYTES + (long) numSorted * RECORD_BYTES;
+        sorted = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES, logStart - HEADER_BYTES);
+
+        long logRecords = (channel.size() - logStart) / RECORD_BYTES;
+        channel.truncate(logStart + logRecords * RECORD_BYTES);
+        log.clear();
+        ByteBuffer logged = channel.map(FileChannel.MapMode.READ_ONLY, logStart, logRecords * RECORD_BYTES);
+        for (int i = 0; i < logRecords; i++) {
+            long code = logged.getLong(i * RECORD_BYTES);
+            int value = logged.getInt(i * RECORD_BYTES + 8);
+            log.merge(code, value, (a, b) -> isExact(a) && !isExact(b) ? a : b);
+        }
+
+        filter = new BloomFilter(numSorted + log.size() + COMPACT_THRESHOLD);
+        for (int i = 0; i < numSorted; i++) {
+            filter.add(sorted.getLong(i * RECORD_BYTES));
+        }
+        for (long code : log.keySet()) {
+            filter.add(code);
+        }
+    }
+
+    /**
+     * Writes a header for a file with NUM_SORTED records in its sorted run to CHANNEL.
+     */
+    private static void writeHeader(FileChannel channel, int numSorted) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES)
+                .putInt(MAGIC).putInt(VERSION).putInt(numSorted).putInt(0);
+        header.flip();
+        channel.write(header, 0);
+    }
+
+    /**
+     * Returns the value for CODE in the sorted run, or 0 if it isn't there.
+     */
+    private int findSorted(long code) {
+        int lo = 0, hi = numSorted - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            long midCode = sorted.getLong(mid * RECORD_BYTES);
+            if (midCode < code) {
+                lo = mid + 1;
+            } else if (midCode > code) {
+                hi = mid - 1;
+            } else {
+                return sorted.getInt(mid * RECORD_BYTES + 8);
+            }
+        }
+
+        return 0;
+    }
+
+    /**
+     * Starts merging the log into the sorted run on the background thread,
+     * unless that's already happening.
+     */
+    private void compactInBackground() {
+        if (compacting.compareAndSet(false, true)) {
+            try {
+                compactor.execute(this::compact);
+            } catch (RuntimeException e) {
+                compacting.set(false); // we're shutting down
+            }
+        }
+    }
+
+    /**
+     * Writes a new file that has the current sorted run and log merged into a single sorted run,
+     * and then swaps it in. Anything added to the log in the meantime goes into the new file's log.
+     * Lookups and appends carry on as usual until the very end.
+     */
+    private void compact() {
+        try {
+            // Take a snapshot of the log, sorted by code
+            long[] codes = log.keySet().stream().mapToLong(Long::longValue).sorted().toArray();
+            int[] values = new int[codes.length];
+            for (int i = 0; i < codes.length; i++) {
+                values[i] = log.get(codes[i]);
+            }
+
+            // Merge it with the sorted run. Only this thread ever replaces the sorted run,
+            // so it isn't going anywhere.
+            File temp = tempFile();
+            int merged = 0;
+            try (FileChannel out = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                ByteBuffer buffer = ByteBuffer.allocate(RECORD_BYTES * 4096);
+                out.position(HEADER_BYTES);
+                int i = 0, j = 0;
+                while (i < numSorted || j < codes.length) {
+                    long a = (i < numSorted) ? sorted.getLong(i * RECORD_BYTES) : Long.MAX_VALUE;
+                    long b = (j < codes.length) ? codes[j] : Long.MAX_VALUE;
+                    int value;
+                    if (a < b) {
+                        value = sorted.getInt(i++ * RECORD_BYTES + 8);
+                    } else {
+                        int old = (a == b) ? sorted.getInt(i++ * RECORD_BYTES + 8) : 0;
+                        value = (old != 0 && isExact(old) && !isExact(values[j])) ? old : values[j];
+                    }
+                    buffer.putLong(Math.min(a, b)).putInt(value);
+                    j += (b <= a) ? 1 : 0;
+                    merged++;
+                    if (!buffer.hasRemaining()) {
+                        buffer.flip();
+                        out.write(buffer);
+                        buffer.clear();
+                    }
+                }
+                buffer.flip();
+                out.write(buffer);
+                writeHeader(out, merged);
+                out.force(false);
+            }
+
+            // Swap it in, along with whatever was logged while we were merging
+            lock.writeLock().lock();
+            try {
+                for (int k = 0; k < codes.length; k++) {
+                    log.remove(codes[k], values[k]);
+                }
+                try (FileChannel out = FileChannel.open(temp.toPath(), StandardOpenOption.WRITE,
+                        StandardOpenOption.APPEND)) {
+                    ByteBuffer record = ByteBuffer.allocate(RECORD_BYTES);
+                    for (Map.Entry<Long, Integer> e : log.entrySet()) {
+                        record.clear();
+                        record.putLong(e.getKey()).putInt(e.getValue()).flip();
+                        out.write(record);
+                    }
+                    out.force(false);
+                }
+                channel.close();
+                Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+                openFile();
+            } finally {
+                lock.writeLock().unlock();
+            }
+        } catch (IOException e) {
+            System.err.println("Couldn't compact the solved-position cache: " + e);
+        } finally {
+            compacting.set(false);
+        }
+    }
+
+    /**
+     * Returns the file that a compaction writes to before it's swapped in.
+     */
+    private File tempFile() {
+        return new File(file.getPath() + ".compacting");
+    }
+
+    /**
+     * A set of position codes that can say for sure that a code ISN'T in it (though it might
+     * wrongly say that one is, about 1% of the time at full capacity). Each code sets
+     * HASHES bits, picked by hashing it. Safe for any number of threads.
+     */
+    private static class BloomFilter {
+        private static final int BITS_PER_ENTRY = 10, HASHES = 7;
+
+        private final AtomicLongArray bits;
+        private final long numBits;
+
+        BloomFilter(long capacity) {
+            long words = Math.max(1, (capacity * BITS_PER_ENTRY + 63) / 64);
+            bits = new AtomicLongArray((int) Math.min(words, Integer.MAX_VALUE));
+            numBits = (long) bits.length() * 64;
+        }
+
+        void add(long code) {
+            long h1 = mix(code), h2 = mix(h1) | 1;
+            for (int i = 0; i < HASHES; i++) {
+                long bit = Math.floorMod(h1 + i * h2, numBits);
+                int word = (int) (bit >>> 6);
+                long mask = 1L << bit;
+                long old;
+                while (((old = bits.get(word)) & mask) == 0
+                        && !bits.compareAndSet(word, old, old | mask)) {
+                    // another thread changed the word first; try again
+                }
+            }
+        }
+
+        boolean mightContain(long code) {
+            long h1 = mix(code), h2 = mix(h1) | 1;
+            for (int i = 0; i < HASHES; i++) {
+                long bit = Math.floorMod(h1 + i * h2, numBits);
+                if ((bits.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        /**
+         * Scrambles the bits of X (the finalizer from MurmurHash3).
+         */
+        private static long mix(long x) {
+            x = (x ^ (x >>> 33)) * 0xFF51AFD7ED558CCDL;
+            x = (x ^ (x >>> 33)) * 0xC4CEB9FE1A85EC53L;
+            return x ^ (x >>> 33);
+        }
+    }
+}
@@ -2,16 +2,26 @@ package Connect4;
 
 /**
  * The panel in which a user plays Connect4 against a computer of HARD difficulty.
- * (This is another way of saying that the computer will play well... but not perfectly.)
+ * The computer plays perfectly whenever it can solve the position in time
+ * (which is to say, it'll never give up a win that it has proven),
+ * and otherwise falls back on a deep search.
+ *
+ * The computer moves first, in the middle column, and every position from there through
+ * the first six plies is in the opening book (see OpeningBook), so its first moves are
+ * looked up rather than solved. After that, each position is solved from scratch within
+ * three quarters of the time limit (see AI.getPerfectMove). Just past the book, that can
+ * take longer than the limit on a slow computer; the move then comes from an ordinary search
+ * instead, and isn't proven (AI.isLastMoveProven returns false). A few plies later, every
+ * position is solved in time.
  * @author Owen Jow
  */
 public class SolvedPanel extends VsComputerPanel {
     /**
-     * Constructs a "solved" panel with a minimax depth of 10.
-     * This means that the computer will always be looking 10 turns ahead.
+     * Constructs a "solved" panel, in which the computer plays perfectly.
+     * When a position can't be solved in time, the computer looks as far ahead as it can instead.
      */
     public SolvedPanel() {
         /* Implicit call to super() */
-        maxDepth = 10;
+        difficulty = Difficulty.HARD;
     }
 }
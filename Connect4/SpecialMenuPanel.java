@@ -7,7 +7,8 @@ import java.awt.event.MouseEvent;
 /**
  * The portal to the three special game modes. From this menu, the user
  * will be able to choose between four different options: Warfare, Four by Two,
- * Removal, and a return to the main menu.
+ * Removal, and a return to the main menu. Warfare and Removal are games between humans,
+ * unless they're shift-clicked, in which case the computer (MonteCarlo) takes every side but one.
  * @author Owen Jow
  */
 public class SpecialMenuPanel extends SheetMenuPanel {
@@ -27,6 +28,7 @@ public class SpecialMenuPanel extends SheetMenuPanel {
     class SpecialMouseListener extends MouseAdapter {
         /**
          * Enters either one of the three special game modes or the main menu.
+         * Holding shift puts the computer in Warfare and Removal.
          */
         public void mouseClicked(MouseEvent evt) {
             if (imgIndex != 0) {
@@ -36,6 +38,7 @@ public class SpecialMenuPanel extends SheetMenuPanel {
                     Panels.mainMenuPanel.activate();
                     Panels.currPanel = Panels.mainMenuPanel;
                 } else if (imgIndex == 2) { // Warfare
+                    Panels.warfarePanel.setVsComputer(evt.isShiftDown());
                     Panels.layout.show(Panels.contentPanel, "display");
                     Panels.displayPanel.activate(Panels.warfarePanel, "warfare", Images.WARFARE_INSTRS);
                     Panels.currPanel = Panels.displayPanel;
@@ -44,6 +47,7 @@ public class SpecialMenuPanel extends SheetMenuPanel {
                     Panels.displayPanel.activate(Panels.fourByTwoPanel, "fourByTwo", Images.FOUR_BY_TWO_INSTRS);
                     Panels.currPanel = Panels.displayPanel;
                 } else { // Removal
+                    Panels.removalPanel.setVsComputer(evt.isShiftDown());
                     Panels.layout.show(Panels.contentPanel, "display");
                     Panels.displayPanel.activate(Panels.removalPanel, "removal", Images.REMOVAL_INSTRS);
                     Panels.currPanel = Panels.displayPanel;
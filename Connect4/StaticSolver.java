@@ -0,0 +1,166 @@
+package Connect4;
+
+/**
+ * Settles some positions without any searching, using the strategy rules from Victor Allis's
+ * VICTOR program. Everything here is from the point of view of the player who ISN'T to move
+ * (the "controller"), who tries to answer every one of the other player's moves by
+ * following a fixed plan, so that the other player can never connect four.
+ *
+ * The plan splits every empty square on the board into pairs, and whenever the other player
+ * takes one square of a pair, the controller takes the other:
+ *
+ *   - Vertical pairs (Allis's claimeven and vertical rules): two squares on top of each other.
+ *     The lower one always has to be taken first, so the controller gets the upper one.
+ *   - Base pairs (Allis's baseinverse rule): the lowest empty squares of two different columns.
+ *     Both of them can be played right away, so the controller gets one or the other.
+ *
+ * Every column with an even number of empty squares is split into vertical pairs, from the
+ * bottom up. A column with an odd number needs its lowest square paired up with the lowest
+ * square of another such column first, and the rest is split into vertical pairs.
+ * (It's always the controller's turn after the pair is taken, so this always works.)
+ *
+ * If every window that the other player could still complete has the upper square of a
+ * vertical pair, or both squares of a base pair, the other player can never connect four, and
+ * the controller can't lose. If, on top of that, one of the controller's own windows can be
+ * filled in using nothing but upper squares (Allis's aftereven rule), the controller
+ * is bound to get all of them, and wins.
+ * @author Owen Jow
+ */
+public class StaticSolver {
+    // Results, from the point of view of the player to move
+    static final int UNKNOWN = 0, NO_WIN = 1, LOSS = 2; // NO_WIN means a draw or a loss
+
+    // UPPERS[c][h] holds the upper squares of the vertical pairs in column C,
+    // if the pairs start at height H
+    private static final long[][] UPPERS = new long[BitBoard.WIDTH][BitBoard.HEIGHT + 1];
+
+    // Every window on the board, as a bitboard of its four squares
+    private static final long[] WINDOWS;
+    static {
+        for (int c = 0; c < BitBoard.WIDTH; c++) {
+            for (int h = 0; h <= BitBoard.HEIGHT; h++) {
+                for (int r = h + 1; r < BitBoard.HEIGHT; r += 2) {
+                    UPPERS[c][h] |= BitBoard.bit(r, c);
+                }
+            }
+        }
+
+        WindowTable geometry = WindowTable.forSize(BitBoard.WIDTH, BitBoard.HEIGHT);
+        WINDOWS = new long[geometry.numWindows()];
+        for (int w = 0; w < WINDOWS.length; w++) {
+            for (int s : geometry.windows[w]) {
+                WINDOWS[w] |= BitBoard.bit(BitBoard.HEIGHT - 1 - s / geometry.width, s % geometry.width);
+            }
+        }
+    }
+
+    private StaticSolver() {}
+
+    /**
+     * Tries to settle BOARD with the rules above, and returns UNKNOWN if they aren't enough,
+     * NO_WIN if the player to move can't win (against perfect play), and LOSS if they lose.
+     * Assumes that nobody has won yet.
+     */
+    public static int solve(BitBoard board) {
+        return solve(board.getPieces(board.getToMove()), board.getMask());
+    }
+
+    /**
+     * Does the same as solve(BitBoard) for the position in which the player to move has
+     * the pieces OURS, and MASK is the set of occupied squares.
+     */
+    static int solve(long ours, long mask) {
+        long theirs = ours ^ mask; // the controller's pieces
+        long possible = BitBoard.possibleMoves(mask);
+
+        // Find the controller's upper squares, and the columns that need base pairs
+        long uppers = 0, bases = 0;
+        int numOdd = 0;
+        for (int c = 0; c < BitBoard.WIDTH; c++) {
+            int h = Long.bitCount(mask & BitBoard.columnMask(c));
+            if ((BitBoard.HEIGHT - h) % 2 == 0) {
+                uppers |= UPPERS[c][h];
+            } else {
+                uppers |= UPPERS[c][h + 1];
+                bases |= possible & BitBoard.columnMask(c);
+                numOdd++;
+            }
+        }
+        if (numOdd % 2 != 0) {
+            return UNKNOWN; // it's the controller's turn, really (so this isn't our position to solve)
+        }
+
+        // Every window we could still complete that doesn't have one of the controller's upper
+        // squares will need a base pair, so it had better have two of the lowest squares in it
+        long[] threats = null;
+        int numLeft = 0;
+        for (long w : WINDOWS) {
+            if ((w & theirs) == 0 && (w & uppers) == 0) {
+                if (Long.bitCount(w & bases) < 2) {
+                    return UNKNOWN;
+                } else if (threats == null) {
+                    threats = new long[WINDOWS.length];
+                }
+                threats[numLeft++] = w;
+            }
+        }
+        int[] oddColumns = new int[numOdd];
+        for (int c = 0, i = 0; c < BitBoard.WIDTH; c++) {
+            if ((bases & BitBoard.columnMask(c)) != 0) {
+                oddColumns[i++] = c;
+            }
+        }
+        if (!pairUp(possible, oddColumns, numOdd, threats, numLeft)) {
+            return UNKNOWN;
+        }
+
+        // Look for a window that the controller will end up filling in
+        for (long w : WINDOWS) {
+            if ((w & ours) == 0 && (w & ~theirs & ~uppers) == 0) {
+                return LOSS;
+            }
+        }
+
+        return NO_WIN;
+    }
+
+    /**
+     * Returns true if the first NUM_ODD columns in ODD_COLUMNS can be paired up so that every one
+     * of the first NUM_WINDOWS windows in WINDOWS contains both lowest squares of some pair
+     * (where POSSIBLE holds the lowest empty square of every column).
+     * (There are at most 15 ways to pair up six columns, so we just try all of them.)
+     */
+    private static boolean pairUp(long possible, int[] oddColumns, int numOdd, long[] windows,
+                                  int numWindows) {
+        if (numWindows == 0) {
+            return true;
+        } else if (numOdd == 0) {
+            return false;
+        }
+
+        // Pair the last column with each of the others in turn
+        int last = oddColumns[numOdd - 1];
+        for (int i = 0; i < numOdd - 1; i++) {
+            int other = oddColumns[i];
+            long pair = possible & (BitBoard.columnMask(last) | BitBoard.columnMask(other));
+
+            // Set aside the windows that this pair takes care of
+            int numLeft = numWindows;
+            for (int j = 0; j < numLeft; j++) {
+                if ((windows[j] & pair) == pair) {
+                    long w = windows[j];
+                    windows[j--] = windows[--numLeft];
+                    windows[numLeft] = w;
+                }
+            }
+
+            oddColumns[i] = oddColumns[numOdd - 2];
+            boolean paired = pairUp(possible, oddColumns, numOdd - 2, windows, numLeft);
+            oddColumns[numOdd - 2] = oddColumns[i];
+            oddColumns[i] = other;
+            if (paired) { return true; }
+        }
+
+        return false;
+    }
+}
@@ -0,0 +1,578 @@
+package Connect4;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * The value of every position on a small board (5x4, say, or 6x5), worked out ahead of time
+ * by retrograde analysis (run this class's main method) and looked up during play.
+ * With a tablebase, the computer plays a board perfectly without searching at all.
+ *
+ * Positions are indexed by their columns. A column of height h whose red pieces are the bits B
+ * (counting up from the bottom) is in state (2^h - 1 + B), which is less than R = 2^(HEIGHT + 1) - 1;
+ * the index of a position is its column states as a base-R number, with column 0 as
+ * the lowest digit. Not every index is a legal position, but every legal position has an index,
+ * and dropping a piece just adds a fixed amount to it.
+ *
+ * For each index, the file holds the value for the player to move in 2 bits (NONE, LOSS, DRAW,
+ * or WIN; NONE is for indexes that aren't positions, or that are already over), and then
+ * the depth in 4 bits: the number of moves the winner makes from here to the end, with both
+ * sides playing perfectly (the winner as quickly as possible, the loser as slowly).
+ * Both parts are memory-mapped, so a lookup is a couple of reads from the page cache.
+ *
+ * The analysis goes backward from the full board, one ply at a time: a position's value only
+ * depends on the positions with one more piece. Each ply is split up by the heights
+ * of the columns, and the groups are worked out in parallel. (Within a ply, positions that
+ * share a byte of the file always have the same column heights, so no two threads ever write
+ * to the same byte.) The file is written in place through the same kind of mapping it's
+ * read through, so the generator needs disk rather than heap.
+ * @author Owen Jow
+ */
+public class Tablebase {
+    static final String TABLEBASE_RESOURCE = "/book/tablebase-%dx%d.bin"; // width, height
+    static final String TABLEBASE_PROPERTY = "connect4.tablebases"; // a directory of tablebase files
+    static final int MAX_SQUARES = 30; // so that every depth fits in 4 bits
+
+    // Values
+    static final int NONE = 0, LOSS = 1, DRAW = 2, WIN = 3;
+
+    private static final int MAGIC = 0x43345442; // "C4TB"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 16;
+    private static final long SEGMENT_BYTES = 1L << 30; // the most that's mapped in one piece
+
+    private final int width, height, h1, radix;
+    private final int[] directions; // the bitboard shifts for vertical, horizontal and diagonal fours
+    private final long[] places; // radix^c, for each column c
+    private final long size; // the number of indexes
+    private final long depthOffset; // where the depths start in the file
+    private final MappedByteBuffer[] segments;
+
+    private Tablebase(int width, int height, MappedByteBuffer[] segments) {
+        this.width = width;
+        this.height = height;
+        this.segments = segments;
+        h1 = height + 1;
+        radix = (1 << h1) - 1;
+        directions = new int[] {1, h1, h1 - 1, h1 + 1};
+        places = new long[width + 1];
+        places[0] = 1;
+        for (int c = 1; c <= width; c++) {
+            places[c] = places[c - 1] * radix;
+        }
+        size = places[width];
+        depthOffset = HEADER_BYTES + (size + 3) / 4;
+    }
+
+    /**
+     * Returns the number of bytes a tablebase for a WIDTH x HEIGHT board takes up.
+     */
+    static long fileSize(int width, int height) {
+        long size = 1;
+        for (int c = 0; c < width; c++) {
+            size *= (1 << (height + 1)) - 1;
+        }
+        return HEADER_BYTES + (size + 3) / 4 + (size + 1) / 2;
+    }
+
+    /**
+     * Loads the tablebase for WIDTH x HEIGHT boards from the directory named by TABLEBASE_PROPERTY,
+     * or else from TABLEBASE_RESOURCE. Returns null if there isn't one (or if it can't be read).
+     */
+    static Tablebase load(int width, int height) {
+        String name = String.format(TABLEBASE_RESOURCE, width, height);
+        try {
+            String directory = System.getProperty(TABLEBASE_PROPERTY);
+            if (directory != null) {
+                File file = new File(directory, name.substring(name.lastIndexOf('/') + 1));
+                return file.exists() ? map(file, false) : null;
+            }
+
+            // A resource inside of a jar can't be mapped directly, so it's copied out first
+            InputStream in = Tablebase.class.getResourceAsStream(name);
+            if (in == null) {
+                return null;
+            }
+            File copy = File.createTempFile("connect4-tablebase", ".bin");
+            copy.deleteOnExit();
+            try (InputStream resource = in) {
+                Files.copy(resource, copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+            return map(copy, false);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Couldn't load the " + width + "x" + height + " tablebase: " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Memory-maps the tablebase in FILE (for writing, if WRITABLE is true).
+     */
+    private static Tablebase map(File file, boolean writable) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, writable ? "rw" : "r");
+             FileChannel channel = raf.getChannel()) {
+            FileChannel.MapMode mode = writable ? FileChannel.MapMode.READ_WRITE : FileChannel.MapMode.READ_ONLY;
+            List<MappedByteBuffer> segments = new ArrayList<>();
+            for (long offset = 0; offset < channel.size(); offset += SEGMENT_BYTES) {
+                segments.add(channel.map(mode, offset, Math.min(SEGMENT_BYTES, channel.size() - offset)));
+            }
+            MappedByteBuffer header = segments.get(0);
+            if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION
+                    || channel.size() != fileSize(header.getInt(8), header.getInt(12))) {
+                throw new IOException(file + " isn't a tablebase");
+            }
+
+            return new Tablebase(header.getInt(8), header.getInt(12), segments.toArray(new MappedByteBuffer[0]));
+        }
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    //================================================================================
+    // Lookups
+    //================================================================================
+
+    /**
+     * Returns the index of the position on BOARD (laid out as in Board, with row 0 at the top).
+     */
+    long indexOf(Piece[][] board) {
+        long index = 0;
+        for (int c = 0; c < width; c++) {
+            int h = 0, reds = 0;
+            for (int row = height - 1; row >= 0 && board[row][c] != null; row--, h++) {
+                if (BitBoard.playerOf(board[row][c].color) == BitBoard.RED) {
+                    reds |= 1 << h;
+                }
+            }
+            index += ((1L << h) - 1 + reds) * places[c];
+        }
+
+        return index;
+    }
+
+    /**
+     * Returns the value (NONE, LOSS, DRAW or WIN) of the position at INDEX, for the player to move.
+     */
+    int getValue(long index) {
+        return (read(HEADER_BYTES + index / 4) >>> (2 * (int) (index % 4))) & 0x3;
+    }
+
+    /**
+     * Returns the number of moves the winner makes from the position at INDEX to the end
+     * (0 for a draw).
+     */
+    int getDepth(long index) {
+        return (read(depthOffset + index / 2) >>> (4 * (int) (index % 2))) & 0xF;
+    }
+
+    /**
+     * Returns the outcome of the position on BOARD (in which nobody has won yet)
+     * for the player to move: ColumnResult.WIN, DRAW or LOSS.
+     */
+    public int getOutcome(Piece[][] board) {
+        return getValue(indexOf(board)) - DRAW;
+    }
+
+    /**
+     * Returns a best move for the player to move on BOARD (in which nobody has won yet, and
+     * which isn't full): a win in as few moves as possible if there is one, otherwise a draw,
+     * otherwise the loss that takes the longest. The file doesn't store best moves, so this
+     * reads the value of every playable child and the depth of each one that isn't a draw:
+     * up to 2 * WIDTH reads, all from the page cache.
+     */
+    public int getBestMove(Piece[][] board) {
+        long index = indexOf(board);
+        int[] heights = new int[width];
+        int numPieces = 0, bestMove = TranspositionTable.NO_MOVE, bestKey = Integer.MIN_VALUE;
+        for (int c = 0; c < width; c++) {
+            while (heights[c] < height && board[height - 1 - heights[c]][c] != null) {
+                heights[c]++;
+            }
+            numPieces += heights[c];
+        }
+
+        boolean redToMove = (numPieces % 2 == 0);
+        for (int c : columnOrder()) {
+            if (heights[c] == height) { continue; }
+
+            long child = index + childOffset(c, heights[c], redToMove);
+            int key;
+            switch (getValue(child)) {
+                case LOSS: // for the other player, that is
+                    key = 2 * MAX_SQUARES - getDepth(child);
+                    break;
+                case DRAW:
+                    key = 0;
+                    break;
+                case WIN:
+                    key = -2 * MAX_SQUARES + getDepth(child);
+                    break;
+                default:
+                    key = 3 * MAX_SQUARES; // that move ends the game (with a win, since nobody's won yet)
+            }
+            if (key > bestKey) {
+                bestKey = key;
+                bestMove = c;
+            }
+        }
+
+        return bestMove;
+    }
+
+    /**
+     * Returns the columns, most central first (the order that ties are broken in).
+     */
+    private int[] columnOrder() {
+        int[] order = new int[width];
+        int n = 0;
+        for (int distance = 0; n < width; distance++) {
+            for (int c = 0; c < width; c++) {
+                if (Math.abs(2 * c - (width - 1)) == distance) { order[n++] = c; }
+            }
+        }
+        return order;
+    }
+
+    /**
+     * Returns what dropping a piece (red if RED is true) into column COL, which holds HEIGHT
+     * pieces, adds to a position's index.
+     */
+    private long childOffset(int col, int height, boolean red) {
+        // The column's state goes from (2^h - 1 + B) to (2^(h + 1) - 1 + B + (red ? 2^h : 0))
+        return (((1L << height) + (red ? (1L << height) : 0))) * places[col];
+    }
+
+    private int read(long offset) {
+        return segments[(int) (offset / SEGMENT_BYTES)].get((int) (offset % SEGMENT_BYTES));
+    }
+
+    private void write(long offset, int b) {
+        segments[(int) (offset / SEGMENT_BYTES)].put((int) (offset % SEGMENT_BYTES), (byte) b);
+    }
+
+    //================================================================================
+    // Generating a tablebase
+    //================================================================================
+
+    /**
+     * Generates the tablebase for WIDTH x HEIGHT boards: java Connect4.Tablebase WIDTH HEIGHT
+     * OUTPUT_FILE [THREADS]. The file is 3/4 of a byte per index (see fileSize).
+     * Or, with -check WIDTH HEIGHT [SAMPLES], checks the tablebase that the game would load
+     * (see check); the exit status is 1 if it's wrong.
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length >= 3 && args[0].equals("-check")) {
+            int samples = (args.length > 3) ? Integer.parseInt(args[3]) : 1000;
+            System.exit(check(Integer.parseInt(args[1]), Integer.parseInt(args[2]), samples) ? 0 : 1);
+        }
+        if (args.length < 3) {
+            System.err.println("Usage: java Connect4.Tablebase WIDTH HEIGHT OUTPUT_FILE [THREADS]");
+            System.err.println("   or: java Connect4.Tablebase -check WIDTH HEIGHT [SAMPLES]");
+            System.exit(1);
+        }
+        int width = Integer.parseInt(args[0]), height = Integer.parseInt(args[1]);
+        int threads = (args.length > 3) ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+        if ((width < 4 && height < 4) || width * height > MAX_SQUARES || width * (height + 1) > 63) {
+            System.err.println("A tablebase can only be made for boards of up to " + MAX_SQUARES
+                    + " squares (on which four can be connected)");
+            System.exit(1);
+        }
+
+        long start = System.nanoTime();
+        File file = new File(args[2]);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(0);
+            raf.setLength(fileSize(width, height));
+            raf.writeInt(MAGIC);
+            raf.writeInt(VERSION);
+            raf.writeInt(width);
+            raf.writeInt(height);
+        }
+        Tablebase tablebase = map(file, true);
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        for (int n = width * height; n >= 0; n--) {
+            int numPieces = n;
+            long positions = pool.submit(() -> tablebase.generatePly(numPieces)).get();
+            System.out.printf("%d pieces: %d positions%n", n, positions);
+        }
+        pool.shutdown();
+        for (MappedByteBuffer segment : tablebase.segments) {
+            segment.force();
+        }
+
+        long root = 0; // the empty board
+        System.out.printf("Wrote %s in %.1f s; the first player %s%n", file, (System.nanoTime() - start) / 1e9,
+                new String[] {"-", "loses", "draws", "wins"}[tablebase.getValue(root)]);
+    }
+
+    /**
+     * Works out every position with NUM_PIECES pieces (whose children must already be done),
+     * in parallel. Returns how many there were.
+     */
+    private long generatePly(int numPieces) {
+        List<int[]> groups = new ArrayList<>();
+        heightVectors(new int[width], 0, numPieces, groups);
+        return IntStream.range(0, groups.size()).parallel()
+                .mapToLong(i -> generateGroup(groups.get(i), numPieces))
+                .sum();
+    }
+
+    /**
+     * Adds to GROUPS every way of giving columns COL and up heights that add up to REMAINING
+     * (with the heights so far in HEIGHTS).
+     */
+    private void heightVectors(int[] heights, int col, int remaining, List<int[]> groups) {
+        if (col == width) {
+            if (remaining == 0) { groups.add(heights.clone()); }
+            return;
+        }
+        for (int h = 0; h <= Math.min(height, remaining); h++) {
+            heights[col] = h;
+            heightVectors(heights, col + 1, remaining - h, groups);
+        }
+    }
+
+    /**
+     * Works out every position whose columns have the heights HEIGHTS (and NUM_PIECES pieces
+     * in all). Red moves first, so red has the extra piece when there's an odd number of them.
+     * Returns the number of positions.
+     */
+    private long generateGroup(int[] heights, int numPieces) {
+        int numRed = (numPieces + 1) / 2;
+        boolean redToMove = (numPieces % 2 == 0);
+        long full = 0; // the occupied squares (in bitboard form, with h1 bits per column)
+        long base = 0; // the index with every piece yellow
+        for (int c = 0; c < width; c++) {
+            full |= ((1L << heights[c]) - 1) << (c * h1);
+            base += ((1L << heights[c]) - 1) * places[c];
+        }
+
+        long count = 0;
+        long limit = 1L << numPieces;
+        for (long reds = (1L << numRed) - 1; reds < limit; reds = nextCombination(reds)) {
+            // Spread the red pieces out over the columns
+            long redBoard = 0, index = base;
+            int shift = 0;
+            for (int c = 0; c < width; c++) {
+                long bits = (reds >>> shift) & ((1L << heights[c]) - 1);
+                redBoard |= bits << (c * h1);
+                index += bits * places[c];
+                shift += heights[c];
+            }
+            long yellowBoard = full & ~redBoard;
+
+            if (!hasFour(redBoard) && !hasFour(yellowBoard)) {
+                evaluate(index, redToMove ? redBoard : yellowBoard, full, heights, redToMove);
+                count++;
+            }
+            if (numRed == 0) { break; }
+        }
+
+        return count;
+    }
+
+    /**
+     * Works out and stores the value and depth of the position at INDEX, in which the player to
+     * move (red if RED_TO_MOVE) has the pieces MINE, FULL is the set of occupied squares,
+     * and the columns have the heights HEIGHTS.
+     */
+    private void evaluate(long index, long mine, long full, int[] heights, boolean redToMove) {
+        int value, depth = 0;
+        boolean canMove = false;
+        int bestWin = Integer.MAX_VALUE, bestDraw = -1, worstLoss = -1;
+        for (int c = 0; c < width; c++) {
+            if (heights[c] == height) { continue; }
+
+            canMove = true;
+            long square = 1L << (c * h1 + heights[c]);
+            if (hasFour(mine | square)) {
+                bestWin = 1;
+                break;
+            }
+            long child = index + childOffset(c, heights[c], redToMove);
+            int childValue = getValue(child);
+            if (childValue == LOSS) {
+                bestWin = Math.min(bestWin, getDepth(child) + 1);
+            } else if (childValue == WIN) {
+                worstLoss = Math.max(worstLoss, getDepth(child));
+            } else {
+                bestDraw = 0; // (a full board is a draw)
+            }
+        }
+
+        if (bestWin != Integer.MAX_VALUE) {
+            value = WIN;
+            depth = bestWin;
+        } else if (bestDraw >= 0 || !canMove) {
+            value = DRAW;
+        } else {
+            value = LOSS;
+            depth = worstLoss;
+        }
+        store(index, value, depth);
+    }
+
+    /**
+     * Stores VALUE and DEPTH for the position at INDEX.
+     */
+    private void store(long index, int value, int depth) {
+        long offset = HEADER_BYTES + index / 4;
+        int shift = 2 * (int) (index % 4);
+        write(offset, (read(offset) & ~(0x3 << shift)) | (value << shift));
+
+        offset = depthOffset + index / 2;
+        shift = 4 * (int) (index % 2);
+        write(offset, (read(offset) & ~(0xF << shift)) | (depth << shift));
+    }
+
+    /**
+     * Returns true if B (a bitboard with h1 bits per column) has four in a row.
+     */
+    private boolean hasFour(long b) {
+        for (int shift : directions) {
+            long m = b & (b >>> shift);
+            if ((m & (m >>> (2 * shift))) != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the next larger number with as many set bits as X (Gosper's hack).
+     */
+    private static long nextCombination(long x) {
+        long smallest = x & -x, ripple = x + smallest;
+        return ripple | (((x ^ ripple) >>> 2) / smallest);
+    }
+
+    //================================================================================
+    // Checking a tablebase
+    //================================================================================
+
+    /**
+     * Checks the tablebase for WIDTH x HEIGHT boards, loaded the way the game loads it
+     * (AI.getTablebase), against a plain search of SAMPLES random positions with at least half
+     * of the board filled: every value and depth has to match, and so does the result of the move
+     * that AI.getTablebaseMove picks. Since the search shares nothing with the tablebase (no
+     * indexes, no packing), this catches mistakes in the 2- and 4-bit packing and in childOffset.
+     * Prints what it finds, and returns true if everything matched.
+     */
+    static boolean check(int width, int height, int samples) {
+        Tablebase tablebase = AI.getTablebase(width, height);
+        if (tablebase == null) {
+            System.out.println("There's no " + width + "x" + height + " tablebase to check");
+            return false;
+        }
+
+        Random random = new Random(width * 64 + height);
+        int size = width * height, checked = 0, wrongValues = 0, wrongMoves = 0;
+        while (checked < samples) {
+            // Play random moves until the board is at least half full (starting over on a four)
+            int[] heights = new int[width];
+            long red = 0, yellow = 0;
+            Piece[][] board = new Piece[height][width];
+            int numPieces = size / 2 + random.nextInt(size - size / 2);
+            boolean playable = true;
+            for (int n = 0; n < numPieces && playable; n++) {
+                int c = random.nextInt(width);
+                if (heights[c] == height) {
+                    n--;
+                    continue;
+                }
+                long square = 1L << (c * (height + 1) + heights[c]);
+                if (n % 2 == 0) { red |= square; } else { yellow |= square; }
+                board[height - 1 - heights[c]][c] = new Piece((n % 2 == 0) ? "red" : "black", c, height - 1 - heights[c]);
+                heights[c]++;
+                playable = !tablebase.hasFour(red) && !tablebase.hasFour(yellow);
+            }
+            if (!playable || numPieces == size) { continue; }
+            checked++;
+
+            boolean redToMove = (numPieces % 2 == 0);
+            long mine = redToMove ? red : yellow, theirs = redToMove ? yellow : red;
+            int[] expected = tablebase.solve(mine, theirs, heights);
+            long index = tablebase.indexOf(board);
+            int value = tablebase.getValue(index) - DRAW, depth = tablebase.getDepth(index);
+            if (value != expected[0] || depth != expected[1]) {
+                wrongValues++;
+                System.out.printf("Position %d: the tablebase says %d in %d, the search says %d in %d%n",
+                        index, value, depth, expected[0], expected[1]);
+            }
+
+            int move = AI.getTablebaseMove(board);
+            long square = 1L << (move * (height + 1) + heights[move]);
+            int[] result;
+            if (tablebase.hasFour(mine | square)) {
+                result = new int[] {1, 1};
+            } else {
+                heights[move]++;
+                int[] reply = tablebase.solve(theirs, mine | square, heights);
+                heights[move]--;
+                result = new int[] {-reply[0], (reply[0] == 1) ? reply[1] : (reply[0] == -1) ? reply[1] + 1 : 0};
+            }
+            if (result[0] != expected[0] || result[1] != expected[1]) {
+                wrongMoves++;
+                System.out.printf("Position %d: column %d gets %d in %d, but %d in %d is possible%n",
+                        index, move, result[0], result[1], expected[0], expected[1]);
+            }
+        }
+
+        System.out.printf("Checked %d positions: %d wrong values, %d wrong moves%n", checked, wrongValues, wrongMoves);
+        return wrongValues == 0 && wrongMoves == 0;
+    }
+
+    /**
+     * Searches the position in which the player to move has the pieces MINE, the other player
+     * has THEIRS, and the columns have the heights HEIGHTS (and nobody has won yet), all the way
+     * to the end. Returns its outcome for the player to move (as a ColumnResult outcome) and
+     * its depth, as they'd be stored.
+     */
+    private int[] solve(long mine, long theirs, int[] heights) {
+        boolean canMove = false, canDraw = false;
+        int bestWin = Integer.MAX_VALUE, worstLoss = -1;
+        for (int c = 0; c < width; c++) {
+            if (heights[c] == height) { continue; }
+
+            canMove = true;
+            long square = 1L << (c * h1 + heights[c]);
+            if (hasFour(mine | square)) {
+                return new int[] {ColumnResult.WIN, 1};
+            }
+            heights[c]++;
+            int[] child = solve(theirs, mine | square, heights);
+            heights[c]--;
+            if (child[0] == ColumnResult.LOSS) {
+                bestWin = Math.min(bestWin, child[1] + 1);
+            } else if (child[0] == ColumnResult.WIN) {
+                worstLoss = Math.max(worstLoss, child[1]);
+            } else {
+                canDraw = true;
+            }
+        }
+
+        if (bestWin != Integer.MAX_VALUE) {
+            return new int[] {ColumnResult.WIN, bestWin};
+        } else if (canDraw || !canMove) {
+            return new int[] {ColumnResult.DRAW, 0};
+        }
+        return new int[] {ColumnResult.LOSS, worstLoss};
+    }
+}
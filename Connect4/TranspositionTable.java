@@ -0,0 +1,97 @@
+package Connect4;
+
+/**
+ * A fixed-size table of previously searched positions, keyed by Zobrist hash.
+ * The same Connect4 position can be reached through many different move orders;
+ * this lets the AI search it once and look the result up every other time.
+ *
+ * Everything we know about a position is packed into a single long "entry".
+ * From the lowest bit upward:
+ *   [ score : 32 | depth : 8 | bound : 2 | best move + 1 : 4 | generation : 8 ]
+ * An entry of 0 means that there's nothing stored.
+ *
+ * When two positions want the same slot, the one that was searched more deeply wins,
+ * unless the stored entry is left over from an earlier search (a previous turn).
+ * How the entries are actually kept is up to the subclass.
+ * @author Owen Jow
+ */
+abstract class TranspositionTable {
+    // Bound types
+    static final int EXACT = 0, LOWER = 1, UPPER = 2;
+    static final int NO_MOVE = -1;
+
+    private static final int DEPTH_SHIFT = 32, BOUND_SHIFT = 40, MOVE_SHIFT = 42, GEN_SHIFT = 46;
+
+    protected volatile int generation = 1; // 0 is reserved for empty slots
+
+    /**
+     * Returns the packed entry for the position with hash KEY, or 0 if there isn't one.
+     * The fields can be read out with getScore, getDepth, getBound, and getMove.
+     */
+    abstract long probe(long key);
+
+    /**
+     * Records the result of searching the position with hash KEY to depth DEPTH.
+     * @param score the score the search returned
+     * @param bound EXACT, LOWER (the score is a lower bound) or UPPER (the score is an upper bound)
+     * @param move the best move that was found, or NO_MOVE
+     */
+    abstract void store(long key, int score, int depth, int bound, int move);
+
+    /**
+     * Empties the table (say, for a new game).
+     */
+    abstract void clear();
+
+    /**
+     * Starts a new search. Entries from older searches are kept around and can still be used,
+     * but any new entry is allowed to replace them.
+     */
+    void nextGeneration() {
+        generation = (generation == 0xFF) ? 1 : generation + 1;
+    }
+
+    /**
+     * Returns true if a new entry of depth DEPTH should go into a slot that currently holds OLD.
+     * SAME_KEY says whether OLD belongs to the same position as the new entry.
+     */
+    protected boolean shouldReplace(long old, boolean sameKey, int depth) {
+        return old == 0 || sameKey || getGeneration(old) != generation || getDepth(old) <= depth;
+    }
+
+    /**
+     * Packs a score, depth, bound and best move into an entry for the current generation.
+     * If MOVE is NO_MOVE, the best move from OLD (an entry for the same position) is kept instead.
+     */
+    protected long pack(long old, int score, int depth, int bound, int move) {
+        if (move == NO_MOVE && old != 0) {
+            move = getMove(old); // remember the old best move rather than nothing at all
+        }
+
+        return (score & 0xFFFFFFFFL)
+                | ((long) depth << DEPTH_SHIFT)
+                | ((long) bound << BOUND_SHIFT)
+                | ((long) (move + 1) << MOVE_SHIFT)
+                | ((long) generation << GEN_SHIFT);
+    }
+
+    static int getScore(long entry) {
+        return (int) entry;
+    }
+
+    static int getDepth(long entry) {
+        return (int) (entry >>> DEPTH_SHIFT) & 0xFF;
+    }
+
+    static int getBound(long entry) {
+        return (int) (entry >>> BOUND_SHIFT) & 0x3;
+    }
+
+    static int getMove(long entry) {
+        return (int) ((entry >>> MOVE_SHIFT) & 0xF) - 1;
+    }
+
+    static int getGeneration(long entry) {
+        return (int) (entry >>> GEN_SHIFT) & 0xFF;
+    }
+}
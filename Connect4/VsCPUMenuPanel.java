@@ -7,6 +7,7 @@ import java.awt.event.MouseEvent;
 
 /**
  * The menu that serves as a gateway to the "human vs. computer" games.
+ * Shift-clicking a difficulty has the computer play with MonteCarlo instead of the AI.
  * @author Owen Jow
  */
 public class VsCPUMenuPanel extends MenuPanel {
@@ -28,10 +29,13 @@ public class VsCPUMenuPanel extends MenuPanel {
     class VsCPUMouseListener extends MouseAdapter {
         /**
          * Enters either a game against an easy computer, a game against a hard computer, 
-         * or the main menu.
+         * or the main menu. (With shift held, the computer plays by Monte Carlo Tree Search.)
          */
         public void mouseClicked(MouseEvent evt) {
             if (imgIndex != 0) {
+                int engine = evt.isShiftDown() ? VsComputerPanel.MONTE_CARLO : VsComputerPanel.MINIMAX;
+                Panels.easyPanel.setEngine(engine);
+                Panels.solvedPanel.setEngine(engine);
                 Panels.currPanel.deactivate();
                 if (imgIndex == 1) { // easy CPU
                     Panels.layout.show(Panels.contentPanel, "display");
@@ -10,17 +10,29 @@ import java.awt.event.ActionEvent;
  * @author Owen Jow
  */
 public class VsComputerPanel extends ReguC4Panel {
+    static final int MINIMAX = 0, MONTE_CARLO = 1; // the engines the computer can play with
     private boolean listenerEnabled = true, turn1 = true;
-    protected int maxDepth = 42;
+    protected Difficulty difficulty = Difficulty.NORMAL; // how well (and how quickly) the AI plays
+    protected long moveTimeLimit = 3000; // the most time (in ms) MonteCarlo may spend on a move
+    protected int searchThreads = Runtime.getRuntime().availableProcessors();
+    protected int engine = MINIMAX; // AI, or MonteCarlo (which ignores the difficulty)
     
     public VsComputerPanel() {
         mouseListener = new VsComputerListener();
     }
     
+    /**
+     * Sets the engine the computer plays with from now on: MINIMAX or MONTE_CARLO.
+     */
+    public void setEngine(int engine) {
+        this.engine = engine;
+    }
+    
     @Override
     public void activate() {
         super.activate();
         turn1 = true;
+        AI.newGame();
     }
     
     @Override
@@ -33,9 +45,12 @@ public class VsComputerPanel extends ReguC4Panel {
                 if (turn1) {
                     board.addToColumn(board.interactivePiece, 3);
                     turn1 = false;
+                } else if (engine == MONTE_CARLO) {
+                    board.addToColumn(board.interactivePiece, MonteCarlo.getBestMove(
+                            new ReguState(board.toBitBoard()), moveTimeLimit, searchThreads));
                 } else {
-                    // Run the minimax algorithm to get the computer's next move
-                    board.addToColumn(board.interactivePiece, AI.getBestComputerMove(board, maxDepth));
+                    // Run the minimax algorithm (or the solver) to get the computer's next move
+                    board.addToColumn(board.interactivePiece, difficulty.getMove(board, searchThreads));
                 }
             } else {
                 listenerEnabled = true;
@@ -14,6 +14,7 @@ public class WarfareBoard extends Board {
         topOffset = 20;
         squareWidth = 36;
         maxNumPieces = boardWidth * boardHeight;
+        windows = WindowTable.forSize(boardWidth, boardHeight);
         
         board = new Piece[boardHeight][boardWidth];
         currColor = "red";
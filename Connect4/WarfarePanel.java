@@ -6,6 +6,9 @@ import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
 import java.awt.event.ActionEvent;
 import java.awt.Color;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
 
 /**
  * A panel in which four players can duke it out on a double-sized board.
@@ -17,11 +20,25 @@ import java.awt.Color;
  */
 public class WarfarePanel extends KPanel {
     private WarfareBoard board;
+    // The colors that the computer plays (with MonteCarlo); the rest are human
+    protected Set<String> computerColors = new HashSet<>();
+    protected long moveTimeLimit = 2000; // the most time (in ms) the computer may spend on a move
     
     public WarfarePanel() {
         mouseListener = new WarfareMouseListener();
     }
     
+    /**
+     * Has the computer play every color but red in the games from now on if VS_COMPUTER is true,
+     * and otherwise leaves all four of them to humans.
+     */
+    public void setVsComputer(boolean vsComputer) {
+        computerColors.clear();
+        if (vsComputer) {
+            computerColors.addAll(Arrays.asList("yellow", "green", "magenta"));
+        }
+    }
+    
     @Override
     public void activate() {
         super.activate();
@@ -30,6 +47,12 @@ public class WarfarePanel extends KPanel {
     
     @Override
     public void actionPerformed(ActionEvent evt) {
+        if (!board.gameOver && computerColors.contains(board.getCurrPlayer())) {
+            int square = MonteCarlo.getBestMove(new WarfareState(board), moveTimeLimit,
+                    Runtime.getRuntime().availableProcessors());
+            board.addToSquare(board.interactivePiece, square / WarfareState.SIDE,
+                    square % WarfareState.SIDE);
+        }
         repaint();
     }
 
@@ -49,7 +72,8 @@ public class WarfarePanel extends KPanel {
         public void mouseClicked(MouseEvent evt) {
             if (board.gameOver || board.toMMHighlighted) {
                 Connect4.returnToMainMenu();
-            } else if (MouseData.x > board.leftOffset 
+            } else if (!computerColors.contains(board.getCurrPlayer())
+                    && MouseData.x > board.leftOffset 
                     && MouseData.x < board.leftOffset + board.boardWidth * board.squareWidth
                     && MouseData.y > board.topOffset 
                     && MouseData.y < board.topOffset + board.boardHeight * board.squareWidth) {
@@ -0,0 +1,160 @@
+package Connect4;
+
+import java.util.SplittableRandom;
+
+/**
+ * The Warfare variant (see WarfareBoard), as a GameState: four players taking turns on
+ * a 14x14 board, where a piece can go on any empty square (there's no gravity).
+ * Moves are squares, numbered as in WindowTable (row * SIDE + column, with row 0 at the top),
+ * and players are numbered in turn order, starting with red.
+ *
+ * The empty squares are kept in a list (along with where each one is in it), so a random move
+ * and playing a move both take constant time.
+ * @author Owen Jow
+ */
+class WarfareState implements GameState {
+    static final int SIDE = 14, NUM_PLAYERS = 4;
+    static final String[] COLORS = {"red", "yellow", "green", "magenta"}; // in turn order
+    private static final WindowTable GEOMETRY = WindowTable.forSize(SIDE, SIDE);
+    private static final long[][] ZOBRIST = new long[NUM_PLAYERS + 1][SIDE * SIDE]; // [player][square], then [NUM_PLAYERS][whose turn]
+    static {
+        SplittableRandom random = new SplittableRandom(SIDE);
+        for (long[] keys : ZOBRIST) {
+            for (int s = 0; s < keys.length; s++) {
+                keys[s] = random.nextLong();
+            }
+        }
+    }
+
+    private final byte[] owners; // the player + 1 on each square, or 0
+    private final short[] empties, where; // the empty squares, and each square's index among them
+    private int numEmpty, toMove, winner = NOBODY;
+    private long hash; // the Zobrist keys of every piece (the turn is mixed in by getHash)
+
+    /**
+     * Constructs the empty board, with red to move.
+     */
+    WarfareState() {
+        owners = new byte[SIDE * SIDE];
+        empties = new short[SIDE * SIDE];
+        where = new short[SIDE * SIDE];
+        for (int s = 0; s < SIDE * SIDE; s++) {
+            where[s] = (short) s;
+            empties[s] = (short) s;
+        }
+        numEmpty = SIDE * SIDE;
+    }
+
+    /**
+     * Constructs the position on BOARD (in which nobody has won yet).
+     */
+    WarfareState(WarfareBoard board) {
+        owners = new byte[SIDE * SIDE];
+        empties = new short[SIDE * SIDE];
+        where = new short[SIDE * SIDE];
+        Piece[][] pieces = board.getBoard();
+        for (int s = 0; s < SIDE * SIDE; s++) {
+            Piece piece = pieces[s / SIDE][s % SIDE];
+            if (piece == null) {
+                where[s] = (short) numEmpty;
+                empties[numEmpty++] = (short) s;
+            } else {
+                owners[s] = (byte) (playerOf(piece.color) + 1);
+                hash ^= ZOBRIST[owners[s] - 1][s];
+            }
+        }
+        toMove = playerOf(board.getCurrPlayer());
+    }
+
+    private WarfareState(WarfareState other) {
+        owners = other.owners.clone();
+        empties = other.empties.clone();
+        where = other.where.clone();
+        numEmpty = other.numEmpty;
+        toMove = other.toMove;
+        winner = other.winner;
+        hash = other.hash;
+    }
+
+    /**
+     * Returns the player number for the color COLOR.
+     */
+    static int playerOf(String color) {
+        for (int p = 0; p < NUM_PLAYERS; p++) {
+            if (COLORS[p].equals(color)) { return p; }
+        }
+        throw new IllegalArgumentException("Not a Warfare color: " + color);
+    }
+
+    @Override
+    public int getNumPlayers() {
+        return NUM_PLAYERS;
+    }
+
+    @Override
+    public int getToMove() {
+        return toMove;
+    }
+
+    @Override
+    public int getMoves(int[] moves) {
+        for (int i = 0; i < numEmpty; i++) {
+            moves[i] = empties[i];
+        }
+        return numEmpty;
+    }
+
+    @Override
+    public int getMaxMoves() {
+        return SIDE * SIDE;
+    }
+
+    @Override
+    public void play(int square) {
+        owners[square] = (byte) (toMove + 1);
+        hash ^= ZOBRIST[toMove][square];
+        int i = where[square];
+        short last = empties[--numEmpty];
+        empties[i] = last;
+        where[last] = (short) i;
+
+        // Only the windows through the new piece can have been completed
+        for (int w : GEOMETRY.squareWindows[square]) {
+            int count = 0;
+            for (int s : GEOMETRY.windows[w]) {
+                if (owners[s] != toMove + 1) { break; }
+                count++;
+            }
+            if (count == 4) {
+                winner = toMove;
+                break;
+            }
+        }
+        toMove = (toMove + 1) % NUM_PLAYERS;
+    }
+
+    @Override
+    public boolean isOver() {
+        return winner != NOBODY || numEmpty == 0;
+    }
+
+    @Override
+    public int getWinner() {
+        return winner;
+    }
+
+    @Override
+    public int randomMove(SplittableRandom random) {
+        return empties[random.nextInt(numEmpty)];
+    }
+
+    @Override
+    public long getHash() {
+        return hash ^ ZOBRIST[NUM_PLAYERS][toMove];
+    }
+
+    @Override
+    public GameState copy() {
+        return new WarfareState(this);
+    }
+}
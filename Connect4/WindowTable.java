@@ -0,0 +1,85 @@
+package Connect4;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The geometry of a board of some particular size, worked out once ahead of time.
+ * A "window" is any four squares in a row (vertically, horizontally, or diagonally);
+ * this lists every window on the board, along with the windows that each square belongs to.
+ * Checking for a connected four then only means looking at the windows through one square.
+ *
+ * Squares are numbered the way Piece[][] boards are laid out: square (r * width + c)
+ * is row R (with row 0 at the top) of column C.
+ *
+ * There's only ever one table per board size; get it with forSize.
+ * @author Owen Jow
+ */
+public class WindowTable {
+    private static final Map<Integer, WindowTable> tables = new HashMap<>();
+
+    final int width, height;
+    final int[][] windows; // windows[w] holds the four squares in window w
+    final int[][] squareWindows; // squareWindows[s] holds the windows that square s is in
+
+    /**
+     * Returns the table for a WIDTH x HEIGHT board, building it if this is the first time it's needed.
+     */
+    static synchronized WindowTable forSize(int width, int height) {
+        return tables.computeIfAbsent(width << 16 | height, k -> new WindowTable(width, height));
+    }
+
+    private WindowTable(int width, int height) {
+        this.width = width;
+        this.height = height;
+
+        // First pass: find all of the windows
+        int[][] directions = {{1, 0}, {0, 1}, {1, 1}, {-1, 1}}; // (dr, dc): down, right, diagonals
+        int[][] found = new int[4 * width * height][];
+        int[] squareCounts = new int[width * height];
+        int numWindows = 0;
+        for (int[] d : directions) {
+            for (int r = 0; r < height; r++) {
+                for (int c = 0; c < width; c++) {
+                    int endR = r + 3 * d[0], endC = c + 3 * d[1];
+                    if (endR < 0 || endR >= height || endC >= width) { continue; }
+
+                    int[] window = new int[4];
+                    for (int i = 0; i < 4; i++) {
+                        window[i] = square(r + i * d[0], c + i * d[1]);
+                        squareCounts[window[i]]++;
+                    }
+                    found[numWindows++] = window;
+                }
+            }
+        }
+        windows = new int[numWindows][];
+        System.arraycopy(found, 0, windows, 0, numWindows);
+
+        // Second pass: index the windows by square
+        squareWindows = new int[width * height][];
+        for (int s = 0; s < squareWindows.length; s++) {
+            squareWindows[s] = new int[squareCounts[s]];
+            squareCounts[s] = 0;
+        }
+        for (int w = 0; w < numWindows; w++) {
+            for (int s : windows[w]) {
+                squareWindows[s][squareCounts[s]++] = w;
+            }
+        }
+    }
+
+    /**
+     * Returns the square number of row R, column C.
+     */
+    int square(int r, int c) {
+        return r * width + c;
+    }
+
+    /**
+     * Returns the number of windows on the board.
+     */
+    int numWindows() {
+        return windows.length;
+    }
+}
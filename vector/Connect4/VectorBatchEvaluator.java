@@ -0,0 +1,113 @@
+package Connect4;
+
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * BatchEvaluator.evaluate with SIMD: each lane of a vector holds a different position, and all
+ * of them go through BatchEvaluator's shifts, ANDs and XORs at once. The bit counts use the
+ * Vector API's own (which some processors do in one instruction) where there is one, from Java 19
+ * on; before that, they're done the SWAR way within each lane, which costs enough that scalar
+ * code with a bit count instruction can be just as fast.
+ *
+ * This needs the incubating jdk.incubator.vector module, both to compile and to run, so it lives
+ * in a source folder of its own and BatchEvaluator finds it by reflection. To use it:
+ *   javac --add-modules jdk.incubator.vector -d out Connect4/*.java vector/Connect4/*.java
+ *   java --add-modules jdk.incubator.vector -Dconnect4.vectorEvaluator=true -cp out ...
+ * Otherwise, BatchEvaluator scores everything without the Vector API (and gets the same scores).
+ * Whether that's slower depends on the processor; BatchEvaluator's main times both.
+ * @author Owen Jow
+ */
+final class VectorBatchEvaluator {
+    private static final VectorSpecies<Long> SPECIES = LongVector.SPECIES_PREFERRED;
+    private static final VectorOperators.Unary BIT_COUNT = findBitCount(); // or null, before Java 19
+
+    private VectorBatchEvaluator() {}
+
+    /**
+     * Returns VectorOperators.BIT_COUNT, or null if this version of the Vector API doesn't have it.
+     */
+    private static VectorOperators.Unary findBitCount() {
+        try {
+            return (VectorOperators.Unary) VectorOperators.class.getField("BIT_COUNT").get(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Does what BatchEvaluator.evaluate does, a vector's worth of positions at a time.
+     */
+    static void evaluate(long[] pieces, long[] others, int[] scores, int count) {
+        long[] lanes = new long[SPECIES.length()];
+        int end = SPECIES.loopBound(count);
+        for (int i = 0; i < end; i += SPECIES.length()) {
+            LongVector mine = LongVector.fromArray(SPECIES, pieces, i);
+            LongVector theirs = LongVector.fromArray(SPECIES, others, i);
+            LongVector score = LongVector.zero(SPECIES);
+            for (int d = 0; d < BatchEvaluator.STEPS.length; d++) {
+                int step = BatchEvaluator.STEPS[d];
+                long starts = BatchEvaluator.STARTS[d];
+                score = score.add(lineScore(mine, theirs, step, starts))
+                        .sub(lineScore(theirs, mine, step, starts));
+            }
+
+            score.intoArray(lanes, 0);
+            for (int k = 0; k < lanes.length; k++) {
+                scores[i + k] = (int) lanes[k];
+            }
+        }
+
+        BatchEvaluator.evaluate(pieces, others, scores, end, count);
+    }
+
+    /**
+     * Returns what BatchEvaluator.lineScore would for each lane.
+     */
+    private static LongVector lineScore(LongVector pieces, LongVector others, int step, long starts) {
+        LongVector live = LongVector.broadcast(SPECIES, starts)
+                .lanewise(VectorOperators.AND_NOT, spread(others, step));
+        LongVector x1 = pieces.lanewise(VectorOperators.LSHR, step);
+        LongVector x2 = pieces.lanewise(VectorOperators.LSHR, 2 * step);
+        LongVector x3 = pieces.lanewise(VectorOperators.LSHR, 3 * step);
+
+        // Add up the four squares of every window: ONES, TWOS and FOURS are the bits of the sum
+        LongVector sum01 = pieces.lanewise(VectorOperators.XOR, x1);
+        LongVector sum23 = x2.lanewise(VectorOperators.XOR, x3);
+        LongVector carry01 = pieces.and(x1), carry23 = x2.and(x3);
+        LongVector ones = sum01.lanewise(VectorOperators.XOR, sum23);
+        LongVector twos = carry01.lanewise(VectorOperators.XOR, carry23)
+                .lanewise(VectorOperators.XOR, sum01.and(sum23));
+        LongVector fours = carry01.and(carry23);
+
+        LongVector onlyOnes = live.and(ones).lanewise(VectorOperators.AND_NOT, twos);
+        LongVector onlyTwos = live.and(twos).lanewise(VectorOperators.AND_NOT, ones);
+        return bitCount(onlyOnes).mul(Evaluator.WEIGHTS[1])
+                .add(bitCount(onlyTwos).mul(Evaluator.WEIGHTS[2]))
+                .add(bitCount(live.and(ones).and(twos)).mul(Evaluator.WEIGHTS[3]))
+                .add(bitCount(live.and(fours)).mul(Evaluator.WEIGHTS[4]));
+    }
+
+    /**
+     * Returns what BatchEvaluator.spread would for each lane.
+     */
+    private static LongVector spread(LongVector b, int step) {
+        return b.or(b.lanewise(VectorOperators.LSHR, step))
+                .or(b.lanewise(VectorOperators.LSHR, 2 * step))
+                .or(b.lanewise(VectorOperators.LSHR, 3 * step));
+    }
+
+    /**
+     * Returns the number of set bits in each lane of V (as Long.bitCount does).
+     */
+    private static LongVector bitCount(LongVector v) {
+        if (BIT_COUNT != null) {
+            return v.lanewise(BIT_COUNT);
+        }
+        v = v.sub(v.lanewise(VectorOperators.LSHR, 1).and(0x5555555555555555L));
+        v = v.and(0x3333333333333333L).add(v.lanewise(VectorOperators.LSHR, 2).and(0x3333333333333333L));
+        v = v.add(v.lanewise(VectorOperators.LSHR, 4)).and(0x0F0F0F0F0F0F0F0FL);
+        return v.mul(0x0101010101010101L).lanewise(VectorOperators.LSHR, 56);
+    }
+}